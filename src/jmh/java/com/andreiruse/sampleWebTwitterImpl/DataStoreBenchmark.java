@@ -0,0 +1,93 @@
+package com.andreiruse.sampleWebTwitterImpl;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.domain.UserRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link InMemoryDataStore} user lookup, and {@link User#follow(User)}, over generated social graphs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Graph {
+        @Param({"1000", "100000"})
+        public int userCount;
+
+        @Param({"UNIFORM", "POWER_LAW"})
+        public SocialGraphGenerator.FollowDistribution distribution;
+
+        DataStore dataStore;
+        String[] usernames;
+
+        @Setup
+        public void setUp() {
+            dataStore = new InMemoryDataStore();
+            List<User> users = new SocialGraphGenerator(userCount, distribution, 42).populate(dataStore, 20, 0);
+            usernames = users.stream().map(User::getUsername).toArray(String[]::new);
+        }
+    }
+
+    /**
+     * A fresh set of users for every iteration, as following keeps adding edges to the graph
+     */
+    @State(Scope.Thread)
+    public static class FollowGraph {
+        @Param({"1000", "100000"})
+        public int userCount;
+
+        @Param({"UNIFORM", "POWER_LAW"})
+        public SocialGraphGenerator.FollowDistribution distribution;
+
+        SocialGraphGenerator generator;
+        User[] users;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            generator = new SocialGraphGenerator(userCount, distribution, 42);
+            users = new User[userCount];
+            UserRegistry registry = new UserRegistry();
+            for (int i = 0; i < userCount; i++) {
+                users[i] = new User("user" + i);
+                registry.register(users[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<User> getUser(Graph graph) {
+        return graph.dataStore.getUser(graph.usernames[ThreadLocalRandom.current().nextInt(graph.usernames.length)]);
+    }
+
+    @Benchmark
+    public Optional<User> getMissingUser(Graph graph) {
+        return graph.dataStore.getUser("missingUser");
+    }
+
+    @Benchmark
+    public void follow(FollowGraph graph) {
+        User follower = graph.users[ThreadLocalRandom.current().nextInt(graph.users.length)];
+        follower.follow(graph.users[graph.generator.nextFollowed()]);
+    }
+}
@@ -0,0 +1,205 @@
+package com.andreiruse.sampleWebTwitterImpl;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates synthetic social graphs, used to benchmark the data store with realistically shaped data.
+ * <p>
+ * Every user follows the same number of other users. Who they follow is either picked uniformly, or following a
+ * power law (Zipf distribution), where the user of rank r is followed proportionally to 1 / r^exponent: a handful of
+ * "celebrity" accounts then gather most of the follows, as they do in real social networks.
+ * <p>
+ * The messages are either posted evenly by all the users, or by authors picked from the same power law, over a
+ * shuffled ranking (the most active authors are not the most followed ones): about 10% of the users then post 80% of
+ * the messages, as measured on Twitter.
+ */
+public class SocialGraphGenerator {
+    public enum FollowDistribution {
+        UNIFORM,
+        POWER_LAW
+    }
+
+    /**
+     * Receives the generated graph: all the users first, then the follows, then the messages, each identified by the
+     * rank of its user(s).
+     */
+    public interface GraphSink {
+        void user(int rank, String username);
+
+        void follow(int follower, int followed);
+
+        void message(int author, String messageBody);
+    }
+
+    private static final double POWER_LAW_EXPONENT = 1.0;
+    private static final int MESSAGE_NUMBERS = 1000;
+
+    private final Random random;
+    private final long seed;
+    private final FollowDistribution distribution;
+    private final double[] cumulativeWeights;
+    private volatile int[] authorRanks; //Shuffled ranks, created on first use
+
+    public SocialGraphGenerator(int userCount, FollowDistribution distribution, long seed) {
+        this.random = new Random(seed);
+        this.seed = seed;
+        this.distribution = distribution;
+        this.cumulativeWeights = new double[userCount];
+        double total = 0;
+        for (int rank = 0; rank < userCount; rank++) {
+            total += 1.0 / Math.pow(rank + 1, POWER_LAW_EXPONENT);
+            cumulativeWeights[rank] = total;
+        }
+    }
+
+    public static String username(int rank) {
+        return "user" + rank;
+    }
+
+    /**
+     * Creates the users, their follows, and their messages in the data store. The messages are posted in rounds, so
+     * that the walls are interleaved in time, as they would be in production.
+     *
+     * @param dataStore      the data store to populate
+     * @param followingCount the number of users followed by each user
+     * @param wallSize       the number of messages posted by each user
+     * @return the users, by rank: with the power law distribution, the first users are the most followed
+     */
+    public List<User> populate(DataStore dataStore, int followingCount, int wallSize) {
+        return populate(dataStore, followingCount, wallSize, FollowDistribution.UNIFORM);
+    }
+
+    /**
+     * Creates the users, their follows, and their messages in the data store.
+     *
+     * @param dataStore           the data store to populate
+     * @param followingCount      the number of users followed by each user
+     * @param wallSize            the average number of messages posted by each user
+     * @param postingDistribution how the messages are spread across the authors
+     * @return the users, by rank: with the power law distribution, the first users are the most followed
+     */
+    public List<User> populate(DataStore dataStore, int followingCount, int wallSize, FollowDistribution postingDistribution) {
+        List<User> users = new ArrayList<>(cumulativeWeights.length);
+        generate(followingCount, wallSize, postingDistribution, new GraphSink() {
+            @Override
+            public void user(int rank, String username) {
+                User user = new User(username);
+                dataStore.storeUser(user);
+                users.add(user);
+            }
+
+            @Override
+            public void follow(int follower, int followed) {
+                dataStore.follow(users.get(follower), users.get(followed));
+            }
+
+            @Override
+            public void message(int author, String messageBody) {
+                dataStore.addMessage(new Message(users.get(author), messageBody));
+            }
+        });
+        return users;
+    }
+
+    /**
+     * Generates the users, their follows, and their messages, in time order.
+     *
+     * @param followingCount      the number of users followed by each user
+     * @param wallSize            the average number of messages posted by each user
+     * @param postingDistribution how the messages are spread across the authors: evenly, in rounds, or following the
+     *                            power law
+     * @param sink                receives the graph
+     */
+    public void generate(int followingCount, int wallSize, FollowDistribution postingDistribution, GraphSink sink) {
+        int userCount = cumulativeWeights.length;
+        for (int rank = 0; rank < userCount; rank++) {
+            sink.user(rank, username(rank));
+        }
+
+        Set<Integer> followed = new HashSet<>();
+        for (int follower = 0; follower < userCount; follower++) {
+            for (int i = 0; i < Math.min(followingCount, userCount - 1); i++) {
+                int rank = nextFollowed();
+                if (rank != follower && followed.add(rank)) {
+                    sink.follow(follower, rank);
+                }
+            }
+            followed.clear();
+        }
+
+        if (postingDistribution == FollowDistribution.UNIFORM) {
+            for (int round = 0; round < wallSize; round++) {
+                for (int author = 0; author < userCount; author++) {
+                    sink.message(author, "Message " + round + " by " + username(author));
+                }
+            }
+        } else {
+            //The numbers are bounded, so that they do not add a term per message to the search index
+            for (long i = 0; i < (long) userCount * wallSize; i++) {
+                int author = nextAuthor(random);
+                sink.message(author, "Message " + i % MESSAGE_NUMBERS + " by " + username(author));
+            }
+        }
+    }
+
+    /**
+     * @return the rank of a user to follow, according to the distribution
+     */
+    public int nextFollowed() {
+        return nextFollowed(random);
+    }
+
+    /**
+     * @param random the source of randomness, e.g. the one of the current thread
+     * @return the rank of a user to follow, according to the distribution
+     */
+    public int nextFollowed(Random random) {
+        if (distribution == FollowDistribution.UNIFORM) {
+            return random.nextInt(cumulativeWeights.length);
+        }
+        return nextPowerLawRank(random);
+    }
+
+    /**
+     * @param random the source of randomness, e.g. the one of the current thread
+     * @return the rank of the author of a message, following the power law over the shuffled ranking of the authors
+     */
+    public int nextAuthor(Random random) {
+        return authorRanks()[nextPowerLawRank(random)];
+    }
+
+    private int nextPowerLawRank(Random random) {
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int rank = Arrays.binarySearch(cumulativeWeights, target);
+        return rank >= 0 ? rank : -rank - 1;
+    }
+
+    private int[] authorRanks() {
+        int[] ranks = authorRanks;
+        if (ranks == null) {
+            synchronized (this) {
+                ranks = authorRanks;
+                if (ranks == null) {
+                    //A separate generator, so that the follows do not depend on whether messages are generated
+                    Random shuffle = new Random(seed + 1);
+                    ranks = new int[cumulativeWeights.length];
+                    for (int i = 0; i < ranks.length; i++) {
+                        int j = shuffle.nextInt(i + 1);
+                        ranks[i] = ranks[j];
+                        ranks[j] = i;
+                    }
+                    authorRanks = ranks;
+                }
+            }
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,105 @@
+package com.andreiruse.sampleWebTwitterImpl.controller;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.SocialGraphGenerator;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the controllers' hot paths (posting a message, and reading walls, timelines and followers), over generated
+ * social graphs of various sizes and shapes. The controllers are called directly, without the HTTP layer.
+ * <p>
+ * Readers and authors are either picked uniformly, or among the most followed users ("celebrities"), which are the
+ * expensive ones with a power law distribution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ControllerBenchmark {
+    private static final int CELEBRITIES = 10;
+
+    @Param({"1000", "20000"})
+    public int userCount;
+
+    @Param({"UNIFORM", "POWER_LAW"})
+    public SocialGraphGenerator.FollowDistribution distribution;
+
+    @Param({"10", "50"})
+    public int wallSize;
+
+    @Param({"50"})
+    public int followingCount;
+
+    @Param({"false", "true"})
+    public boolean celebrities;
+
+    private UsersController usersController;
+    private MessageController messageController;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        DataStore dataStore = new InMemoryDataStore();
+        List<User> users = new SocialGraphGenerator(userCount, distribution, 42).populate(dataStore, followingCount, wallSize);
+        usernames = users.stream().map(User::getUsername).toArray(String[]::new);
+
+        usersController = new UsersController();
+        messageController = new MessageController();
+        inject(usersController, dataStore);
+        inject(messageController, dataStore);
+    }
+
+    @Benchmark
+    public ResponseEntity<Void> postMessage() {
+        MessageController.MessageInput input = new MessageController.MessageInput();
+        input.username = nextUsername();
+        input.messageBody = "Benchmark message";
+        return messageController.postMessage(input);
+    }
+
+    @Benchmark
+    public ResponseEntity<List<Message>> getWall() {
+        return usersController.getWall(nextUsername(), null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<List<Message>> getTimeline() {
+        return usersController.getTimeline(nextUsername(), null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<List<User>> getFollowers() {
+        return usersController.followers(nextUsername(), null, null);
+    }
+
+    private String nextUsername() {
+        return usernames[ThreadLocalRandom.current().nextInt(celebrities ? CELEBRITIES : usernames.length)];
+    }
+
+    private static void inject(Object controller, DataStore dataStore) throws ReflectiveOperationException {
+        Field field = controller.getClass().getDeclaredField("dataStore");
+        field.setAccessible(true);
+        field.set(controller, dataStore);
+    }
+}
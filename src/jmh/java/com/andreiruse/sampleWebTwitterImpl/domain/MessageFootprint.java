@@ -0,0 +1,116 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the heap retained by the stored messages, per million messages: once as one object per message (an author,
+ * a username and a content String, and an identifier, as the walls used to keep them), and once in the walls'
+ * {@link MessageLog}s.
+ * <p>
+ * The heap is measured after forcing full collections, before and after storing the messages, through the
+ * {@link MemoryMXBean}. The measure is approximate, but the difference between the two layouts is far larger than the
+ * noise. The message contents are random ASCII text, of 20 to 140 characters.
+ * <p>
+ * Configured with system properties: footprint.messages and footprint.users. Run with a fixed heap (e.g. -Xms4g
+ * -Xmx4g), so that the collections do not resize it.
+ */
+public class MessageFootprint {
+    private static final int MIN_LENGTH = 20;
+    private static final int MAX_LENGTH = 140;
+
+    public static void main(String[] args) {
+        int messageCount = Integer.getInteger("footprint.messages", 1_000_000);
+        int userCount = Integer.getInteger("footprint.users", 10_000);
+
+        long objects = retainedBytes(() -> storeAsObjects(users(userCount), messageCount));
+        long logs = retainedBytes(() -> storeInLogs(users(userCount), messageCount));
+
+        double millions = messageCount / 1e6;
+        System.out.println(String.format(Locale.ROOT, "%-16s %16s %14s", "Layout", "MB per million", "Bytes/message"));
+        System.out.println(String.format(Locale.ROOT, "%-16s %16.1f %14.1f", "Message objects", objects / millions / 1e6, (double) objects / messageCount));
+        System.out.println(String.format(Locale.ROOT, "%-16s %16.1f %14.1f", "MessageLog", logs / millions / 1e6, (double) logs / messageCount));
+    }
+
+    private static long retainedBytes(Store store) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = usedAfterCollection(memory);
+        Object retained = store.store(); //Includes the users, which take the same space in both layouts
+        long after = usedAfterCollection(memory);
+        if (retained.hashCode() == 42) { //Keeps the messages reachable until measured
+            System.out.print("");
+        }
+        return after - before;
+    }
+
+    private static long usedAfterCollection(MemoryMXBean memory) {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static List<List<RetainedMessage>> storeAsObjects(List<User> users, int messageCount) {
+        int userCount = users.size();
+        List<List<RetainedMessage>> walls = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            walls.add(new ArrayList<>());
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < messageCount; i++) {
+            int author = random.nextInt(userCount);
+            walls.get(author).add(new RetainedMessage(users.get(author), content(random), i + 1));
+        }
+        return walls;
+    }
+
+    private static List<User> storeInLogs(List<User> users, int messageCount) {
+        Random random = new Random(42);
+        for (int i = 0; i < messageCount; i++) {
+            User author = users.get(random.nextInt(users.size()));
+            author.addMessage(Message.view(i + 1, author, content(random)));
+        }
+        return users;
+    }
+
+    private static List<User> users(int userCount) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("user" + i));
+        }
+        return users;
+    }
+
+    private static String content(Random random) {
+        char[] content = new char[MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1)];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (char) (' ' + random.nextInt(95));
+        }
+        return new String(content);
+    }
+
+    private interface Store {
+        Object store();
+    }
+
+    /**
+     * The fields of a message, as it used to be kept on the walls
+     */
+    private static final class RetainedMessage {
+        private final User author;
+        private final String username;
+        private final String content;
+        private final long id;
+
+        private RetainedMessage(User author, String content, long id) {
+            this.author = author;
+            this.username = author.getUsername();
+            this.content = content;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.andreiruse.sampleWebTwitterImpl.load;
+
+import com.andreiruse.sampleWebTwitterImpl.SocialGraphGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Seeds a running server with a generated social graph, through its /bulk/ endpoints: the users, follows and messages
+ * are sent as newline-delimited JSON, in requests of {@link #ITEMS_PER_REQUEST} items.
+ * <p>
+ * The generated usernames and message bodies hold no character that needs to be escaped in JSON.
+ */
+public class BulkSeeder implements SocialGraphGenerator.GraphSink {
+    static final int ITEMS_PER_REQUEST = 10_000;
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final String baseUrl;
+    private final StringBuilder items = new StringBuilder();
+    private String endpoint;
+    private int itemCount;
+    private long sentCount;
+    private long rejectedCount;
+
+    /**
+     * @param baseUrl the URL of the server, e.g. http://localhost:8080
+     */
+    public BulkSeeder(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public void user(int rank, String username) {
+        add("/bulk/users", "{\"username\":\"" + username + "\"}");
+    }
+
+    @Override
+    public void follow(int follower, int followed) {
+        add("/bulk/follows", "{\"username\":\"" + SocialGraphGenerator.username(follower) + "\",\"who\":\""
+                + SocialGraphGenerator.username(followed) + "\"}");
+    }
+
+    @Override
+    public void message(int author, String messageBody) {
+        add("/bulk/messages", "{\"username\":\"" + SocialGraphGenerator.username(author) + "\",\"messageBody\":\"" + messageBody + "\"}");
+    }
+
+    /**
+     * Sends the items not sent yet
+     */
+    public void flush() {
+        if (itemCount == 0) {
+            return;
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + endpoint).openConnection();
+            byte[] body = items.toString().getBytes(StandardCharsets.UTF_8);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", NDJSON);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("POST " + endpoint + " failed with HTTP " + connection.getResponseCode());
+            }
+            //The response lists the status of every item: count the ones the server turned down, e.g. existing users
+            String results;
+            try (InputStream input = connection.getInputStream()) {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    response.write(buffer, 0, read);
+                }
+                results = new String(response.toByteArray(), StandardCharsets.UTF_8);
+            }
+            for (int i = results.indexOf("\"status\":4"); i >= 0; i = results.indexOf("\"status\":4", i + 1)) {
+                rejectedCount++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sentCount += itemCount;
+        items.setLength(0);
+        itemCount = 0;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return the number of items the server answered with a 4xx status
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void add(String endpoint, String item) {
+        //The users are all sent before the follows, and the follows before the messages, which refer to them
+        if (!endpoint.equals(this.endpoint)) {
+            flush();
+            this.endpoint = endpoint;
+        }
+        items.append(item).append('\n');
+        if (++itemCount == ITEMS_PER_REQUEST) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.andreiruse.sampleWebTwitterImpl.load;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.ExecutionMode;
+import com.andreiruse.sampleWebTwitterImpl.ServerRunner;
+import com.andreiruse.sampleWebTwitterImpl.SocialGraphGenerator;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the throughput and the latency of the {@link ExecutionMode}s, under a large number of concurrent
+ * connections. For every mode, the {@link ServerRunner} is started in this JVM, filled with a generated social graph,
+ * and loaded by an {@link HttpLoadGenerator}, over the loopback interface.
+ * <p>
+ * The clients read timelines, and post a share of messages. With the journal enabled, posting blocks until the journal
+ * is forced to disk, which is where the thread-per-request pool gets exhausted.
+ * <p>
+ * Configured with system properties: load.modes, load.connections, load.threads, load.warmup-seconds,
+ * load.duration-seconds, load.users, load.post-percent, load.journal and load.port. The virtual threads need Java 21
+ * or later, so they are only compared by default on a JVM which has them; on an older one, that mode is reported as skipped.
+ */
+public class ExecutionModeBenchmark {
+    private static final int FOLLOWING_COUNT = 50;
+    private static final int WALL_SIZE = 10;
+
+    public static void main(String[] args) throws Exception {
+        String defaultModes = supportsVirtualThreads() ? "PLATFORM_THREADS,VIRTUAL_THREADS" : "PLATFORM_THREADS";
+        String modeList = System.getProperty("load.modes", "");
+        String[] modes = (modeList.trim().isEmpty() ? defaultModes : modeList).split(",");
+        int connections = Integer.getInteger("load.connections", 10_000);
+        int threads = Integer.getInteger("load.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        long warmupMillis = Integer.getInteger("load.warmup-seconds", 10) * 1000L;
+        long durationMillis = Integer.getInteger("load.duration-seconds", 30) * 1000L;
+        int userCount = Integer.getInteger("load.users", 10_000);
+        int postPercent = Integer.getInteger("load.post-percent", 10);
+        boolean journal = Boolean.getBoolean("load.journal");
+        int port = Integer.getInteger("load.port", 8080);
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format(Locale.ROOT, "%-17s %12s %10s %10s %10s %10s %8s",
+                "Mode", "Requests/s", "p50 (us)", "p99 (us)", "p99.9 (us)", "Max (us)", "Errors"));
+        for (String mode : modes) {
+            List<String> properties = new ArrayList<>();
+            properties.add("--server.port=" + port);
+            properties.add("--server.execution-mode=" + mode.trim());
+            properties.add("--server.tomcat.max-connections=" + (connections + 100));
+            properties.add("--server.tomcat.accept-count=" + connections);
+            properties.add("--logging.level.root=WARN");
+            if (journal) {
+                properties.add("--datastore.journal.directory=" + Files.createTempDirectory("journal-" + mode.trim()));
+            }
+
+            ConfigurableApplicationContext context;
+            try {
+                context = SpringApplication.run(ServerRunner.class, properties.toArray(new String[0]));
+            } catch (RuntimeException e) {
+                report.add(String.format(Locale.ROOT, "%-17s skipped: %s", mode.trim(), rootCause(e).getMessage()));
+                continue;
+            }
+            try {
+                new SocialGraphGenerator(userCount, SocialGraphGenerator.FollowDistribution.POWER_LAW, 42)
+                        .populate(context.getBean(DataStore.class), FOLLOWING_COUNT, WALL_SIZE);
+
+                HttpLoadGenerator generator = new HttpLoadGenerator(new InetSocketAddress("localhost", port), connections, threads,
+                        () -> nextRequest(userCount, postPercent));
+                HttpLoadGenerator.Result result = generator.run(warmupMillis, durationMillis);
+                report.add(String.format(Locale.ROOT, "%-17s %12.0f %10.0f %10.0f %10.0f %10.0f %8d",
+                        mode.trim(), result.getThroughput(), result.getLatencyMicros(50), result.getLatencyMicros(99),
+                        result.getLatencyMicros(99.9), result.getLatencyMicros(100), result.getErrors() + result.getFailedConnections()));
+            } finally {
+                context.close();
+            }
+        }
+
+        System.out.println();
+        System.out.println(connections + " connections, " + postPercent + "% posts" + (journal ? ", journaled" : ""));
+        report.forEach(System.out::println);
+    }
+
+    private static HttpLoadGenerator.Request nextRequest(int userCount, int postPercent) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = "user" + random.nextInt(userCount);
+        String request;
+        if (random.nextInt(100) < postPercent) {
+            String body = "{\"username\":\"" + username + "\",\"messageBody\":\"Load test message " + random.nextInt() + "\"}";
+            request = "POST /message HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: "
+                    + body.length() + "\r\n\r\n" + body;
+            return new HttpLoadGenerator.Request("post", request.getBytes(StandardCharsets.UTF_8));
+        }
+        request = "GET /users/" + username + "/timeline?limit=20 HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        return new HttpLoadGenerator.Request("timeline", request.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks the virtual thread executor up the same way the server does, as this class is compiled for Java 9 too
+     */
+    private static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Throwable rootCause(Throwable throwable) {
+        while (throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+}
@@ -0,0 +1,565 @@
+package com.andreiruse.sampleWebTwitterImpl.load;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * A HTTP/1.1 load generator, sending requests over keep-alive connections, either in a closed loop or in an open loop.
+ * <p>
+ * The connections are non-blocking, and multiplexed over a few selector threads, so that tens of thousands of
+ * concurrent connections only cost a handful of threads on the client side, and the client does not starve the
+ * server it runs next to.
+ * <p>
+ * In a closed loop, every connection sends a request, waits for the whole response, and sends the next request right
+ * away. The latency of a request is measured from the moment it is written, so a server that stalls also delays the
+ * requests that would have been sent meanwhile, and these are not accounted for (coordinated omission). The
+ * percentiles are therefore optimistic, but they remain comparable between two runs against the same workload.
+ * <p>
+ * In an open loop, the requests are scheduled at a fixed rate, and sent on the next idle connection. Their latency is
+ * measured from the time they were scheduled at, rather than from the time they were written: when the server stalls,
+ * the requests queued behind the stall are recorded with the time they waited, as the users of the service would
+ * have seen it. The time from the write alone (the service time) is reported next to it.
+ */
+public class HttpLoadGenerator {
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    private static final byte[] LINE_END = {'\r', '\n'};
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int threads;
+    private final Supplier<Request> requests;
+
+    /**
+     * @param address     the address of the server
+     * @param connections the number of concurrent connections
+     * @param threads     the number of selector threads sharing the connections
+     * @param requests    supplies the request to send next, labelled with its operation, by which the responses are
+     *                    also reported. Called concurrently by the selector threads
+     */
+    public HttpLoadGenerator(InetSocketAddress address, int connections, int threads, Supplier<Request> requests) {
+        this.address = address;
+        this.connections = connections;
+        this.threads = Math.min(threads, connections);
+        this.requests = requests;
+    }
+
+    /**
+     * Opens the connections, and sends requests over them in a closed loop, for the warmup and the measurement periods.
+     * Only the responses to the requests sent during the measurement period are recorded.
+     *
+     * @param warmupMillis   the time during which the responses are not recorded
+     * @param durationMillis the measurement time
+     * @return the recorded responses
+     * @throws InterruptedException if interrupted while waiting for the selector threads
+     */
+    public Result run(long warmupMillis, long durationMillis) throws InterruptedException {
+        return run(warmupMillis, durationMillis, 0);
+    }
+
+    /**
+     * Opens the connections, and sends requests over them at a fixed rate (open loop), for the warmup and the
+     * measurement periods. Only the responses to the requests scheduled during the measurement period are recorded.
+     *
+     * @param warmupMillis      the time during which the responses are not recorded
+     * @param durationMillis    the measurement time
+     * @param requestsPerSecond the rate at which the requests are scheduled, or 0 to run in a closed loop
+     * @return the recorded responses
+     * @throws InterruptedException if interrupted while waiting for the selector threads
+     */
+    public Result run(long warmupMillis, long durationMillis, double requestsPerSecond) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + warmupMillis * 1_000_000;
+        long measureEnd = measureStart + durationMillis * 1_000_000;
+        //Every thread schedules its share of the rate, offset from the others so that the requests are evenly spaced
+        long interval = requestsPerSecond > 0 ? (long) (threads * 1e9 / requestsPerSecond) : 0;
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int share = connections / threads + (i < connections % threads ? 1 : 0);
+            Worker worker = new Worker(share, measureStart, measureEnd, interval, start + i * interval / threads);
+            Thread thread = new Thread(worker, "load-generator-" + i);
+            workers.add(worker);
+            workerThreads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        return new Result(workers, durationMillis);
+    }
+
+    /**
+     * A raw HTTP/1.1 request, and the name of the operation it performs
+     */
+    public static final class Request {
+        private final String operation;
+        private final byte[] bytes;
+
+        public Request(String operation, byte[] bytes) {
+            this.operation = operation;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The responses recorded during the measurement period
+     */
+    public static final class Result {
+        private final Recording total;
+        private final Map<String, Recording> operations = new TreeMap<>();
+        private final long[] serviceTimes; //Sorted, in nanoseconds
+        private final long failedConnections;
+        private final long incomplete;
+        private final long durationMillis;
+
+        private Result(List<Worker> workers, long durationMillis) {
+            List<Recording> all = new ArrayList<>();
+            Map<String, List<Recording>> byOperation = new TreeMap<>();
+            List<Recording> serviceTimes = new ArrayList<>();
+            long failedConnections = 0;
+            long incomplete = 0;
+            for (Worker worker : workers) {
+                for (Map.Entry<String, Recording> operation : worker.operations.entrySet()) {
+                    all.add(operation.getValue());
+                    byOperation.computeIfAbsent(operation.getKey(), key -> new ArrayList<>()).add(operation.getValue());
+                }
+                serviceTimes.add(worker.serviceTimes);
+                failedConnections += worker.failedConnections;
+                incomplete += worker.incomplete();
+            }
+            this.total = Recording.merge(all);
+            byOperation.forEach((operation, recordings) -> operations.put(operation, Recording.merge(recordings)));
+            this.serviceTimes = Recording.merge(serviceTimes).latencies;
+            this.failedConnections = failedConnections;
+            this.incomplete = incomplete;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * @return the number of successful (2xx) responses
+         */
+        public long getResponses() {
+            return total.count;
+        }
+
+        /**
+         * @return the number of non-2xx responses, and of connections closed by the server
+         */
+        public long getErrors() {
+            return total.errors;
+        }
+
+        public long getFailedConnections() {
+            return failedConnections;
+        }
+
+        /**
+         * @return in an open loop, the number of requests scheduled during the measurement period, and not answered
+         * by its end (either still waiting for a connection, or for their response)
+         */
+        public long getIncomplete() {
+            return incomplete;
+        }
+
+        /**
+         * @return the successful responses per second
+         */
+        public double getThroughput() {
+            return total.count * 1000.0 / durationMillis;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency of the successful responses at that percentile, in microseconds. In an open loop, it
+         * includes the time spent waiting to be sent
+         */
+        public double getLatencyMicros(double percentile) {
+            return percentileMicros(total.latencies, total.count, percentile);
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the time from the write of the request to its response, at that percentile, in microseconds. It is
+         * the latency in a closed loop
+         */
+        public double getServiceTimeMicros(double percentile) {
+            return percentileMicros(serviceTimes, serviceTimes.length, percentile);
+        }
+
+        /**
+         * @return the operations that requests were sent for, in alphabetical order
+         */
+        public Set<String> getOperations() {
+            return operations.keySet();
+        }
+
+        public long getErrors(String operation) {
+            return operations.get(operation).errors;
+        }
+
+        public double getThroughput(String operation) {
+            return operations.get(operation).count * 1000.0 / durationMillis;
+        }
+
+        public double getLatencyMicros(String operation, double percentile) {
+            Recording recording = operations.get(operation);
+            return percentileMicros(recording.latencies, recording.count, percentile);
+        }
+
+        private static double percentileMicros(long[] sorted, int count, double percentile) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * count);
+            return sorted[Math.max(0, Math.min(rank, count) - 1)] / 1000.0;
+        }
+    }
+
+    /**
+     * The latencies of the successful responses, in nanoseconds, and the number of errors
+     */
+    private static final class Recording {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        private void record(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[count++] = latency;
+        }
+
+        /**
+         * @return the recordings merged, with their latencies sorted
+         */
+        private static Recording merge(List<Recording> recordings) {
+            Recording merged = new Recording();
+            merged.latencies = new long[recordings.stream().mapToInt(recording -> recording.count).sum()];
+            for (Recording recording : recordings) {
+                System.arraycopy(recording.latencies, 0, merged.latencies, merged.count, recording.count);
+                merged.count += recording.count;
+                merged.errors += recording.errors;
+            }
+            Arrays.sort(merged.latencies);
+            return merged;
+        }
+    }
+
+    /**
+     * The state of one connection: the request being written, and the response being read
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer request;
+        private String operation;
+        private ByteBuffer response = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private long scheduledAt;
+        private long sentAt;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Drives a share of the connections from its own selector
+     */
+    private final class Worker implements Runnable {
+        private final int connectionCount;
+        private final long measureStart;
+        private final long measureEnd;
+        private final long interval; //Between the scheduled requests, in nanoseconds, or 0 in a closed loop
+        private final Deque<SelectionKey> idle = new ArrayDeque<>();
+        private final Map<String, Recording> operations = new HashMap<>();
+        private final Recording serviceTimes = new Recording();
+        private long nextScheduledAt;
+        private long scheduled;
+        private long failedConnections;
+
+        private Worker(int connectionCount, long measureStart, long measureEnd, long interval, long firstScheduledAt) {
+            this.connectionCount = connectionCount;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            this.interval = interval;
+            this.nextScheduledAt = firstScheduledAt;
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (int i = 0; i < connectionCount; i++) {
+                    connect(selector);
+                }
+                long now;
+                while ((now = System.nanoTime()) < measureEnd) {
+                    if (interval > 0) {
+                        now = dispatch(now);
+                        long waitMillis = (nextScheduledAt - now) / 1_000_000;
+                        if (idle.isEmpty() || waitMillis > 0) {
+                            selector.select(idle.isEmpty() ? 100 : Math.min(100, waitMillis));
+                        } else {
+                            selector.selectNow();
+                        }
+                    } else {
+                        selector.select(100);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Sends the requests whose time has come, as long as there are idle connections to send them on
+         *
+         * @return the current time
+         */
+        private long dispatch(long now) throws IOException {
+            while (nextScheduledAt <= now && nextScheduledAt < measureEnd && !idle.isEmpty()) {
+                SelectionKey key = idle.poll();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (nextScheduledAt >= measureStart) {
+                    scheduled++;
+                }
+                try {
+                    send(key, (Connection) key.attachment(), nextScheduledAt);
+                } catch (IOException e) {
+                    Connection connection = (Connection) key.attachment();
+                    if (connection.scheduledAt >= measureStart) {
+                        recording(connection.operation).errors++;
+                    }
+                    close(key);
+                }
+                nextScheduledAt += interval;
+                now = System.nanoTime();
+            }
+            return now;
+        }
+
+        /**
+         * @return the requests scheduled during the measurement period, not answered: the ones still waiting for a
+         * connection, and the ones sent, still waiting for their response
+         */
+        private long incomplete() {
+            if (interval == 0) {
+                return 0;
+            }
+            long unsent = nextScheduledAt < measureEnd ? (measureEnd - Math.max(nextScheduledAt, measureStart) + interval - 1) / interval : 0;
+            long answered = operations.values().stream().mapToLong(recording -> recording.count + recording.errors).sum();
+            return Math.max(0, scheduled + unsent - answered);
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    if (connection.channel.finishConnect()) {
+                        ready(key, connection);
+                    }
+                } else if (key.isWritable()) {
+                    write(key, connection);
+                } else if (key.isReadable()) {
+                    read(key, connection);
+                }
+            } catch (IOException e) {
+                if (connection.sentAt == 0) {
+                    failedConnections++;
+                } else if (connection.scheduledAt >= measureStart) {
+                    recording(connection.operation).errors++;
+                }
+                close(key);
+            }
+        }
+
+        private void connect(Selector selector) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, new Connection(channel));
+        }
+
+        /**
+         * Sends the next request right away in a closed loop, or waits for it to be scheduled in an open loop
+         */
+        private void ready(SelectionKey key, Connection connection) throws IOException {
+            if (interval > 0) {
+                key.interestOps(0);
+                idle.add(key);
+            } else {
+                send(key, connection, System.nanoTime());
+            }
+        }
+
+        private void send(SelectionKey key, Connection connection, long scheduledAt) throws IOException {
+            Request request = requests.get();
+            connection.operation = request.operation;
+            connection.request = ByteBuffer.wrap(request.bytes);
+            connection.scheduledAt = scheduledAt;
+            connection.sentAt = System.nanoTime();
+            write(key, connection);
+        }
+
+        private void write(SelectionKey key, Connection connection) throws IOException {
+            connection.channel.write(connection.request);
+            key.interestOps(connection.request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer response = connection.response;
+            if (!response.hasRemaining()) {
+                response = ByteBuffer.allocate(response.capacity() * 2).put(response.flip());
+                connection.response = response;
+            }
+            if (connection.channel.read(response) < 0) {
+                if (connection.scheduledAt >= measureStart) {
+                    recording(connection.operation).errors++;
+                }
+                close(key);
+                return;
+            }
+            int responseLength = responseLength(response.array(), response.position());
+            if (responseLength < 0) {
+                return;
+            }
+
+            long receivedAt = System.nanoTime();
+            if (connection.scheduledAt >= measureStart) {
+                Recording recording = recording(connection.operation);
+                if (isSuccess(response.array())) {
+                    recording.record(receivedAt - connection.scheduledAt);
+                    serviceTimes.record(receivedAt - connection.sentAt);
+                } else {
+                    recording.errors++;
+                }
+            }
+            response.clear();
+            if (receivedAt >= measureEnd) {
+                return;
+            }
+            if (closesConnection(response.array(), responseLength)) {
+                //The server limits the number of requests per connection: open a new one to keep the concurrency constant
+                close(key);
+                connect(key.selector());
+            } else {
+                ready(key, connection);
+            }
+        }
+
+        private Recording recording(String operation) {
+            return operations.computeIfAbsent(operation, key -> new Recording());
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                //Already failed, nothing else to do
+            }
+        }
+    }
+
+    /**
+     * @return true if the status line holds a 2xx code
+     */
+    private static boolean isSuccess(byte[] response) {
+        return response.length > 9 && response[9] == '2';
+    }
+
+    /**
+     * @return true if the server announced that it closes the connection after this response
+     */
+    private static boolean closesConnection(byte[] response, int length) {
+        int headerEnd = indexOf(response, 0, length, HEADER_END);
+        return new String(response, 0, headerEnd, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT).contains("\r\nconnection: close");
+    }
+
+    /**
+     * Finds out whether a complete response has been received, from either its Content-Length, or its chunked encoding.
+     *
+     * @param data   the bytes received
+     * @param length the number of bytes received
+     * @return the length of the response, or -1 if it is incomplete
+     */
+    static int responseLength(byte[] data, int length) {
+        int headerEnd = indexOf(data, 0, length, HEADER_END);
+        if (headerEnd < 0) {
+            return -1;
+        }
+        int bodyStart = headerEnd + HEADER_END.length;
+        String headers = new String(data, 0, headerEnd, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        int contentLength = headers.indexOf("\r\ncontent-length:");
+        if (contentLength >= 0) {
+            int valueStart = contentLength + "\r\ncontent-length:".length();
+            int valueEnd = headers.indexOf("\r\n", valueStart);
+            int bodyLength = Integer.parseInt(headers.substring(valueStart, valueEnd < 0 ? headers.length() : valueEnd).trim());
+            return length >= bodyStart + bodyLength ? bodyStart + bodyLength : -1;
+        }
+        if (!headers.contains("\r\ntransfer-encoding: chunked")) {
+            return bodyStart;
+        }
+
+        int position = bodyStart;
+        while (true) {
+            int lineEnd = indexOf(data, position, length, LINE_END);
+            if (lineEnd < 0) {
+                return -1;
+            }
+            String sizeLine = new String(data, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            int extension = sizeLine.indexOf(';');
+            int chunkSize = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+            position = lineEnd + LINE_END.length;
+            if (chunkSize == 0) {
+                //No trailers are sent by the server, so the last chunk is followed by an empty line
+                return length >= position + LINE_END.length ? position + LINE_END.length : -1;
+            }
+            position += chunkSize + LINE_END.length;
+            if (position > length) {
+                return -1;
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+        for (int i = from; i <= to - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
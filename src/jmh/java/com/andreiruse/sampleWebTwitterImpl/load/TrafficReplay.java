@@ -0,0 +1,210 @@
+package com.andreiruse.sampleWebTwitterImpl.load;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.ServerRunner;
+import com.andreiruse.sampleWebTwitterImpl.SocialGraphGenerator;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replays production-shaped traffic against the server: a social graph of (by default) a million users is seeded,
+ * then a mix of wall, timeline, followers, follow and post requests is sent at a fixed rate, by an open-loop
+ * {@link HttpLoadGenerator}, and the throughput and the latency percentiles of every operation are printed.
+ * <p>
+ * The graph follows power laws, as generated by {@link SocialGraphGenerator}: a few users gather most of the followers,
+ * and a few others post most of the messages. The replayed traffic is shaped the same way: the walls and the followers
+ * of the most followed users are read the most, and they are the most followed, while the timelines are read by all
+ * the users evenly, and the messages are posted by the most active authors.
+ * <p>
+ * By default, the server is started in this JVM, configured with the arguments in replay.server-args (e.g.
+ * --datastore.shards=4), and seeded through direct calls to its {@link DataStore}. With
+ * replay.target=host:port, an already running server is loaded instead, and seeded through its /bulk/ endpoints
+ * (unless replay.seed=false, e.g. when replaying against the same server again).
+ * <p>
+ * The latencies are measured from the time every request was scheduled at, so a server falling behind the rate is
+ * reported with the time the requests waited (corrected for coordinated omission). The time from the write alone is
+ * printed next to it, as the service time.
+ * <p>
+ * Configured with system properties: replay.target, replay.port, replay.server-args, replay.seed, replay.users,
+ * replay.following, replay.wall-size, replay.mix (e.g. timeline=60,wall=20,followers=5,follow=5,post=10), replay.rate
+ * (requests per second), replay.connections, replay.threads, replay.warmup-seconds and replay.duration-seconds.
+ */
+public class TrafficReplay {
+    private static final String DEFAULT_MIX = "timeline=60,wall=20,followers=5,follow=5,post=10";
+    private static final int PAGE_SIZE = 20;
+    private static final int HASHTAG_COUNT = 100;
+
+    enum Operation {
+        TIMELINE,
+        WALL,
+        FOLLOWERS,
+        FOLLOW,
+        POST
+    }
+
+    private final SocialGraphGenerator generator;
+    private final int userCount;
+    private final Operation[] operations = Operation.values();
+    private final int[] cumulativeWeights = new int[operations.length];
+
+    /**
+     * @param generator the generator of the seeded graph, picking the users the requests are sent for
+     * @param userCount the number of seeded users
+     * @param mix       the weight of every operation, e.g. timeline=60,wall=20,followers=5,follow=5,post=10. The
+     *                  operations left out are not sent
+     */
+    TrafficReplay(SocialGraphGenerator generator, int userCount, String mix) {
+        this.generator = generator;
+        this.userCount = userCount;
+        int[] weights = new int[operations.length];
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.split("=");
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight, but was " + entry);
+            }
+            weights[Operation.valueOf(weight[0].trim().toUpperCase(Locale.ROOT)).ordinal()] = Integer.parseInt(weight[1].trim());
+        }
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix has no operation with a positive weight: " + mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = System.getProperty("replay.target", "");
+        int port = Integer.getInteger("replay.port", 8080);
+        String serverArgs = System.getProperty("replay.server-args", "");
+        boolean seed = !"false".equals(System.getProperty("replay.seed"));
+        int userCount = Integer.getInteger("replay.users", 1_000_000);
+        int followingCount = Integer.getInteger("replay.following", 20);
+        int wallSize = Integer.getInteger("replay.wall-size", 5);
+        String mix = System.getProperty("replay.mix", "");
+        int rate = Integer.getInteger("replay.rate", 2_000);
+        int connections = Integer.getInteger("replay.connections", 200);
+        int threads = Integer.getInteger("replay.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        long warmupMillis = Integer.getInteger("replay.warmup-seconds", 10) * 1000L;
+        long durationMillis = Integer.getInteger("replay.duration-seconds", 60) * 1000L;
+
+        SocialGraphGenerator generator = new SocialGraphGenerator(userCount, SocialGraphGenerator.FollowDistribution.POWER_LAW, 42);
+        TrafficReplay replay = new TrafficReplay(generator, userCount, mix.isEmpty() ? DEFAULT_MIX : mix);
+        ConfigurableApplicationContext context = null;
+        InetSocketAddress address;
+        if (target.isEmpty()) {
+            List<String> properties = new ArrayList<>();
+            properties.add("--server.port=" + port);
+            properties.add("--server.tomcat.max-connections=" + (connections + 100));
+            properties.add("--logging.level.root=WARN");
+            if (!serverArgs.trim().isEmpty()) {
+                properties.addAll(Arrays.asList(serverArgs.trim().split("\\s+")));
+            }
+            context = SpringApplication.run(ServerRunner.class, properties.toArray(new String[0]));
+            address = new InetSocketAddress("localhost", port);
+        } else {
+            String[] hostAndPort = target.split(":");
+            address = new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        }
+        try {
+            if (seed) {
+                long seedStart = System.nanoTime();
+                if (context != null) {
+                    generator.populate(context.getBean(DataStore.class), followingCount, wallSize, SocialGraphGenerator.FollowDistribution.POWER_LAW);
+                    System.out.printf(Locale.ROOT, "Seeded %d users in %.1f s%n", userCount, (System.nanoTime() - seedStart) / 1e9);
+                } else {
+                    BulkSeeder seeder = new BulkSeeder("http://" + target);
+                    generator.generate(followingCount, wallSize, SocialGraphGenerator.FollowDistribution.POWER_LAW, seeder);
+                    seeder.flush();
+                    System.out.printf(Locale.ROOT, "Seeded %d users, follows and messages (%d items, %d rejected) in %.1f s%n",
+                            userCount, seeder.getSentCount(), seeder.getRejectedCount(), (System.nanoTime() - seedStart) / 1e9);
+                }
+            }
+
+            HttpLoadGenerator.Result result = new HttpLoadGenerator(address, connections, threads, replay::nextRequest)
+                    .run(warmupMillis, durationMillis, rate);
+            report(result, rate, connections);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    private static void report(HttpLoadGenerator.Result result, int rate, int connections) {
+        String format = "%-10s %12.0f %10.0f %10.0f %10.0f %10.0f %10.0f %8d%n";
+        System.out.println();
+        System.out.println("Target: " + rate + " requests/s over " + connections + " connections. Latencies from the scheduled time:");
+        System.out.printf(Locale.ROOT, "%-10s %12s %10s %10s %10s %10s %10s %8s%n",
+                "Operation", "Requests/s", "p50 (us)", "p90 (us)", "p99 (us)", "p99.9 (us)", "Max (us)", "Errors");
+        for (String operation : result.getOperations()) {
+            System.out.printf(Locale.ROOT, format, operation, result.getThroughput(operation),
+                    result.getLatencyMicros(operation, 50), result.getLatencyMicros(operation, 90), result.getLatencyMicros(operation, 99),
+                    result.getLatencyMicros(operation, 99.9), result.getLatencyMicros(operation, 100), result.getErrors(operation));
+        }
+        System.out.printf(Locale.ROOT, format, "all", result.getThroughput(),
+                result.getLatencyMicros(50), result.getLatencyMicros(90), result.getLatencyMicros(99),
+                result.getLatencyMicros(99.9), result.getLatencyMicros(100), result.getErrors());
+        System.out.printf(Locale.ROOT, format, "service", result.getThroughput(),
+                result.getServiceTimeMicros(50), result.getServiceTimeMicros(90), result.getServiceTimeMicros(99),
+                result.getServiceTimeMicros(99.9), result.getServiceTimeMicros(100), result.getErrors());
+        System.out.println("Unanswered at the end: " + result.getIncomplete() + ", failed connections: " + result.getFailedConnections());
+    }
+
+    /**
+     * @return the next request of the mix. Called concurrently by the threads of the load generator
+     */
+    HttpLoadGenerator.Request nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Operation operation = nextOperation(random);
+        String request;
+        switch (operation) {
+            case TIMELINE:
+                request = get("/users/" + SocialGraphGenerator.username(random.nextInt(userCount)) + "/timeline?limit=" + PAGE_SIZE);
+                break;
+            case WALL:
+                request = get("/users/" + popularUser(random) + "/wall?limit=" + PAGE_SIZE);
+                break;
+            case FOLLOWERS:
+                request = get("/users/" + popularUser(random) + "/followers/?limit=" + PAGE_SIZE);
+                break;
+            case FOLLOW:
+                request = "POST /users/" + SocialGraphGenerator.username(random.nextInt(userCount)) + "/follow/" + popularUser(random)
+                        + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n";
+                break;
+            default:
+                String body = "{\"username\":\"" + SocialGraphGenerator.username(generator.nextAuthor(random))
+                        + "\",\"messageBody\":\"Replayed message " + random.nextInt(1000) + " #topic" + random.nextInt(HASHTAG_COUNT) + "\"}";
+                request = "POST /message HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: "
+                        + body.length() + "\r\n\r\n" + body;
+        }
+        return new HttpLoadGenerator.Request(operation.name().toLowerCase(Locale.ROOT), request.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Operation nextOperation(Random random) {
+        int target = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= target) {
+            i++;
+        }
+        return operations[i];
+    }
+
+    private String popularUser(Random random) {
+        return SocialGraphGenerator.username(generator.nextFollowed(random));
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+}
@@ -0,0 +1,93 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.SocialGraphGenerator;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the instrumentation: recording a latency into a {@link Histogram}, alone and from several
+ * threads at once, and the cheapest and a typical data store operations, with and without the {@link InstrumentedDataStore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+    private static final int USER_COUNT = 10_000;
+
+    private Histogram histogram;
+    private DataStore dataStore;
+    private DataStore instrumentedDataStore;
+    private String[] usernames;
+    private User[] users;
+
+    @Setup
+    public void setUp() {
+        histogram = new Histogram();
+        dataStore = new InMemoryDataStore();
+        instrumentedDataStore = new InstrumentedDataStore(dataStore, new Metrics());
+        List<User> generated = new SocialGraphGenerator(USER_COUNT, SocialGraphGenerator.FollowDistribution.POWER_LAW, 42)
+                .populate(dataStore, 50, 10);
+        users = generated.toArray(new User[0]);
+        usernames = generated.stream().map(User::getUsername).toArray(String[]::new);
+    }
+
+    /**
+     * The two clock reads around every timed operation
+     */
+    @Benchmark
+    public long timestamps() {
+        return -System.nanoTime() + System.nanoTime();
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000_000));
+    }
+
+    @Benchmark
+    public Optional<User> getUser() {
+        return dataStore.getUser(usernames[ThreadLocalRandom.current().nextInt(USER_COUNT)]);
+    }
+
+    @Benchmark
+    public Optional<User> getUserInstrumented() {
+        return instrumentedDataStore.getUser(usernames[ThreadLocalRandom.current().nextInt(USER_COUNT)]);
+    }
+
+    @Benchmark
+    public List<Message> getTimeline() {
+        return dataStore.getTimeline(users[ThreadLocalRandom.current().nextInt(USER_COUNT)], Long.MAX_VALUE, 100);
+    }
+
+    @Benchmark
+    public List<Message> getTimelineInstrumented() {
+        return instrumentedDataStore.getTimeline(users[ThreadLocalRandom.current().nextInt(USER_COUNT)], Long.MAX_VALUE, 100);
+    }
+}
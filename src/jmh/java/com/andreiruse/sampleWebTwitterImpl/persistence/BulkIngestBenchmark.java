@@ -0,0 +1,80 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares ingesting a batch of messages into a {@link JournaledDataStore} one by one, as the single-item endpoints
+ * do, with ingesting it in a single call, as the bulk endpoints do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkIngestBenchmark {
+    @Param({"1000"})
+    public int batchSize;
+
+    @Param({"BATCH", "INTERVAL"})
+    public FsyncPolicy fsyncPolicy;
+
+    private Path directory;
+    private JournaledDataStore dataStore;
+    private User author;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bulk-benchmark");
+        dataStore = new JournaledDataStore(new InMemoryDataStore(), directory, fsyncPolicy, 100, 0);
+        author = new User("benchmarkUser");
+        dataStore.storeUser(author);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataStore.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void singleCalls() {
+        for (int i = 0; i < batchSize; i++) {
+            dataStore.addMessage(new Message(author, "Message " + i));
+        }
+    }
+
+    @Benchmark
+    public void bulkCall() {
+        List<Message> messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            messages.add(new Message(author, "Message " + i));
+        }
+        dataStore.addMessages(messages);
+    }
+}
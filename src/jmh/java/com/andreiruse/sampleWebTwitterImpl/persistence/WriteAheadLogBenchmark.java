@@ -0,0 +1,72 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the write throughput of the {@link WriteAheadLog}, for each {@link FsyncPolicy}, with a single writer, and
+ * with many concurrent writers sharing the group commits. The records are 140-character messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+    @Param({"BATCH", "INTERVAL"})
+    public FsyncPolicy fsyncPolicy;
+
+    private Path directory;
+    private WriteAheadLog log;
+    private byte[] record;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        log = new WriteAheadLog(directory, 1, fsyncPolicy, 100);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 140) {
+            content.append("Benchmark message ");
+        }
+        record = JournalCodec.message(1L, "benchmarkUser", content.substring(0, 140));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void appendSingleWriter() {
+        log.append(record);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void appendConcurrentWriters() {
+        log.append(record);
+    }
+}
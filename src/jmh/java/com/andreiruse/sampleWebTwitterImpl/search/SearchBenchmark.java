@@ -0,0 +1,100 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries of the {@link MessageIndex}, on messages drawing their words from a Zipf-like vocabulary: the
+ * weight of word "wn" is 1/(n+1), so "w0" is in most of the messages, and "w1000" in about one per thousand.
+ * <p>
+ * The page size is the default one of the endpoint (100). A frequent term fills the page from the tail of its list,
+ * while a rare term, and a frequent term combined with a rare one, read further back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx6g")
+public class SearchBenchmark {
+    private static final int VOCABULARY = 10_000;
+    private static final int WORDS_PER_MESSAGE = 12;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000000"})
+    public int messageCount;
+
+    private MessageIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        User[] authors = new User[1_000];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = new User("author-" + i);
+        }
+        //Cumulative weights of the words, for the 1/n distribution
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        index = new MessageIndex();
+        StringBuilder content = new StringBuilder();
+        for (long id = 1; id <= messageCount; id++) {
+            content.setLength(0);
+            for (int i = 0; i < WORDS_PER_MESSAGE; i++) {
+                int word = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                content.append('w').append(word < 0 ? -word - 1 : word).append(' ');
+            }
+            User author = authors[random.nextInt(authors.length)];
+            Message message = new Message(id, author, content.toString());
+            author.addMessage(message);
+            index.index(message);
+        }
+    }
+
+    @Benchmark
+    public List<Message> frequentTerm() {
+        return index.search("w0", Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> rareTerm() {
+        return index.search("w1000", Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> twoFrequentTerms() {
+        return index.search("w0 w1", Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> frequentAndRareTerms() {
+        return index.search("w0 w1000", Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> deepPage() {
+        return index.search("w0", messageCount / 2, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,82 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the sequential and the parallel (fork-join) merge of the walls into a timeline page, across fan-in sizes,
+ * to place {@link TimelineEngine#DEFAULT_PARALLEL_THRESHOLD}: the number of walls from which the parallel merge wins.
+ * <p>
+ * Every followed user is fanned out on read, so that the page merges one wall per followed user. The results depend on
+ * the number of processors (and the parallel merge only adds overhead on a single one).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimelineAssemblyBenchmark {
+    private static final int MESSAGES_PER_WALL = 20;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"100", "1000", "3000", "10000"})
+    public int fanIn;
+
+    private DataStore sequential;
+    private DataStore parallel;
+    private User sequentialReader;
+    private User parallelReader;
+
+    @Setup
+    public void setUp() {
+        sequential = new InMemoryDataStore(new TimelineEngine(TimelineEngine.DEFAULT_INBOX_CAPACITY, -1, null, Integer.MAX_VALUE));
+        parallel = new InMemoryDataStore(new TimelineEngine(TimelineEngine.DEFAULT_INBOX_CAPACITY, -1, null, 0));
+        sequentialReader = populate(sequential);
+        parallelReader = populate(parallel);
+    }
+
+    @Benchmark
+    public List<Message> sequentialMerge() {
+        return sequential.getTimeline(sequentialReader, Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> parallelMerge() {
+        return parallel.getTimeline(parallelReader, Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    private User populate(DataStore dataStore) {
+        Random random = new Random(42);
+        User reader = new User("reader");
+        dataStore.storeUser(reader);
+        for (int i = 0; i < fanIn; i++) {
+            User author = new User("author" + i);
+            dataStore.storeUser(author);
+            dataStore.follow(reader, author);
+        }
+        //Interleaves the posts, so that the newest messages are spread across the walls
+        for (int i = 0; i < fanIn * MESSAGES_PER_WALL; i++) {
+            User author = dataStore.getUser("author" + random.nextInt(fanIn)).get();
+            dataStore.addMessage(new Message(author, "Message " + i));
+        }
+        return reader;
+    }
+}
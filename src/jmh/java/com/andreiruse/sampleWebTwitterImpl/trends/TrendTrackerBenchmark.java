@@ -0,0 +1,72 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost the {@link TrendTracker} adds to every tagged post, from one and from several threads, and the
+ * cost of listing the trends over the whole window, once every bucket is full.
+ * <p>
+ * Half of the hashtags come from a small set of hot ones, which are updated by every thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrendTrackerBenchmark {
+    private TrendTracker tracker;
+    private String[] hashtags;
+
+    @Setup
+    public void setUp() {
+        tracker = new TrendTracker();
+        hashtags = new String[100_000];
+        for (int i = 0; i < hashtags.length; i++) {
+            hashtags[i] = "#tag" + i;
+        }
+        //Fills every bucket of the window
+        long now = System.currentTimeMillis();
+        for (int minute = 0; minute < TrendTracker.DEFAULT_BUCKET_COUNT; minute++) {
+            for (int i = 0; i < 20_000; i++) {
+                tracker.record(hashtag(), now - minute * TrendTracker.DEFAULT_BUCKET_MILLIS);
+            }
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        tracker.record(hashtag(), System.currentTimeMillis());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        tracker.record(hashtag(), System.currentTimeMillis());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Trend> topOverHour() {
+        return tracker.top(TrendTracker.DEFAULT_BUCKET_COUNT * TrendTracker.DEFAULT_BUCKET_MILLIS, 10);
+    }
+
+    private String hashtag() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return hashtags[random.nextBoolean() ? random.nextInt(10) : random.nextInt(hashtags.length)];
+    }
+}
@@ -1,9 +1,13 @@
 package com.andreiruse.sampleWebTwitterImpl;
 
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
 import com.andreiruse.sampleWebTwitterImpl.domain.User;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 
 /**
  * This interface defined the data store that backs the application.
@@ -11,16 +15,31 @@ import java.util.Set;
  * <p>
  * This data store can be backed by virtually anything. The simplest method (which is also implemented in {@link InMemoryDataStore}
  * is backed by memory, however we could also have a file-backed / SQL-Database-backed / etc.
+ * <p>
+ * Implementations are called concurrently from the web server's worker threads, and have to be thread-safe.
  */
 public interface DataStore {
     /**
-     * Stores the user's details. The calling code has to validate the details, as this method should not have any custom logic.
+     * Stores the user's details, unless a user with the same username (ignoring case) is already stored.
+     * The check and the insert are performed as a single atomic operation.
+     * The calling code has to validate the details, as this method should not have any custom logic.
+     *
      * @param user the user details
+     * @return true if the user has been stored, false if the username was already taken
      */
-    void storeUser(User user);
+    boolean storeUser(User user);
 
     /**
-     * Looks up the user matching the given username.
+     * Stores several users at once, as if {@link #storeUser(User)} was called for each of them, in order.
+     * Implementations may apply the whole batch more efficiently than the individual calls (e.g. with a single write to disk).
+     *
+     * @param users the users to store
+     * @return for each user, true if it has been stored, false if the username was already taken
+     */
+    boolean[] storeUsers(List<User> users);
+
+    /**
+     * Looks up the user matching the given username. The lookup is case-insensitive.
      * @param username the username to search for
      * @return an optional, representing the user matching the username. The optional is empty if no corresponding user has been found
      */
@@ -28,8 +47,114 @@ public interface DataStore {
 
     /**
      * Gets all users in the database.
+     * The returned collection is a live, weakly consistent view: it is not copied, and it may or may not reflect users stored while it is being iterated.
+     *
+     * @return the users
+     */
+    Collection<User> getUsers();
+
+    /**
+     * Gets a page of the users following the given user, in the order the followers were stored.
+     *
+     * @param user  the followed user
+     * @param after the username of the follower after which the page starts (exclusive), or null to start from the first
+     *              follower. The page is empty if there is no such user
+     * @param limit the maximum number of followers to return
+     * @return the followers in the requested page
+     */
+    List<User> getFollowers(User user, String after, int limit);
+
+    /**
+     * Lazily iterates over the users following the given user, in the order the followers were stored. Nothing is copied
+     * upfront, so this is suitable to stream large results.
+     *
+     * @param user  the followed user
+     * @param after the username of the follower after which the iteration starts (exclusive), or null to start from the
+     *              first follower. Nothing is returned if there is no such user
+     * @return the followers
+     */
+    Iterator<User> iterateFollowers(User user, String after);
+
+    /**
+     * Records that a user follows another user, and makes the followed user's messages available in the follower's timeline.
+     * Following a user twice has no effect.
+     *
+     * @param follower the user who follows
+     * @param followed the user being followed
+     * @return true if the follower was not already following the followed user
+     */
+    boolean follow(User follower, User followed);
+
+    /**
+     * Records that a user stops following another user, and removes the followed user's messages from the follower's timeline.
+     *
+     * @param follower the user who unfollows
+     * @param followed the user being unfollowed
+     * @return true if the follower was following the followed user
+     */
+    boolean unfollow(User follower, User followed);
+
+    /**
+     * Records several follows at once, as if {@link #follow(User, User)} was called for each of them, in order.
+     *
+     * @param follows the follows to record
+     * @return for each follow, true if the follower was not already following the followed user
+     */
+    boolean[] followAll(List<Follow> follows);
+
+    /**
+     * Adds a new message to its author's wall, and delivers it to the author's followers' timelines.
+     * The calling code has to validate the message.
+     *
+     * @param message the message to add
+     */
+    void addMessage(Message message);
+
+    /**
+     * Adds several messages at once, as if {@link #addMessage(Message)} was called for each of them, in order.
+     *
+     * @param messages the messages to add
+     */
+    void addMessages(List<Message> messages);
+
+    /**
+     * Gets a page of the messages posted by a user, in reverse chronological order.
+     *
+     * @param user   the user whose wall is requested
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @return the newest messages of the wall
+     */
+    List<Message> getWall(User user, long before, int limit);
+
+    /**
+     * Lazily iterates over the messages posted by a user, in reverse chronological order. Nothing is copied upfront, so
+     * this is suitable to stream large results.
+     *
+     * @param user   the user whose wall is requested
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @return the messages of the wall
+     */
+    Iterator<Message> iterateWall(User user, long before);
+
+    /**
+     * Gets a page of the timeline of a user: the messages posted by the users they follow, in reverse chronological order.
+     *
+     * @param user   the user whose timeline is requested
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @return the newest messages of the timeline
+     */
+    List<Message> getTimeline(User user, long before, int limit);
+
+    /**
+     * Lazily iterates over the timeline of a user, in reverse chronological order. The data is read as the iteration
+     * progresses, so this is suitable to stream large results.
      *
-     * @return the list of users
+     * @param user          the user whose timeline is requested
+     * @param before        only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param expectedCount the number of messages the caller intends to read, which implementations may use to size what they read upfront
+     * @return the messages of the timeline
      */
-    Set<User> getUsers();
+    Iterator<Message> iterateTimeline(User user, long before, int expectedCount);
 }
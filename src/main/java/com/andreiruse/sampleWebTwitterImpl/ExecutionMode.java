@@ -0,0 +1,17 @@
+package com.andreiruse.sampleWebTwitterImpl;
+
+/**
+ * How the web server runs the requests, selected with the server.execution-mode property.
+ */
+public enum ExecutionMode {
+    /**
+     * Tomcat's default pool of platform threads, bounded by the server.tomcat.max-threads property (200 by default).
+     * A request blocked on I/O (e.g. forcing the journal to disk) holds its thread until it completes.
+     */
+    PLATFORM_THREADS,
+    /**
+     * A new virtual thread for every request, so the number of requests in flight is only bounded by the number of
+     * connections (server.tomcat.max-connections). Requires Java 21 or later.
+     */
+    VIRTUAL_THREADS
+}
@@ -1,42 +1,191 @@
 package com.andreiruse.sampleWebTwitterImpl;
 
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
 import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.domain.UserRegistry;
+import com.andreiruse.sampleWebTwitterImpl.timeline.MessageMerger;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineEngine;
+import com.andreiruse.sampleWebTwitterImpl.timeline.WallCursor;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A memory-backed implementation of the {@link DataStore} interface.
  * Stores a list of users in memory, with all associated data.
+ * <p>
+ * Users are indexed by their canonical (lower-cased) username, so lookups are constant time, and are safe to perform concurrently with inserts.
+ * They are also assigned a dense identifier by a {@link UserRegistry} when they are stored, which the follow graph refers to them by.
+ * Timelines are precomputed by a {@link TimelineEngine}, which is notified of every new message and follow.
  */
 public class InMemoryDataStore implements DataStore {
     /**
-     * The list of users
+     * The users, keyed by canonical username
      */
-    private final Set<User> users = new HashSet<>();
+    private final ConcurrentMap<String, User> users = new ConcurrentHashMap<>();
+    private final UserRegistry registry;
+    private final TimelineEngine timelineEngine;
+
+    public InMemoryDataStore() {
+        this(new TimelineEngine());
+    }
+
+    public InMemoryDataStore(TimelineEngine timelineEngine) {
+        this(timelineEngine, new UserRegistry());
+    }
+
+    /**
+     * @param timelineEngine the engine precomputing the timelines of the users stored here
+     * @param registry       the registry assigning the users' identifiers, which may be shared with other data stores,
+     *                       so that their users can follow each other (see {@link com.andreiruse.sampleWebTwitterImpl.sharding.ShardedDataStore})
+     */
+    public InMemoryDataStore(TimelineEngine timelineEngine, UserRegistry registry) {
+        this.timelineEngine = timelineEngine;
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean storeUser(User user) {
+        //The user is registered before it can be found, and so followed
+        return users.computeIfAbsent(canonicalUsername(user.getUsername()), x -> {
+            registry.register(user);
+            return user;
+        }) == user;
+    }
 
     @Override
-    public void storeUser(User user) {
-        users.add(user);
+    public boolean[] storeUsers(List<User> users) {
+        boolean[] stored = new boolean[users.size()];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = storeUser(users.get(i));
+        }
+        return stored;
     }
 
     @Override
     public Optional<User> getUser(String username) {
-        return users.stream()
-                .filter(x -> x.getUsername().equalsIgnoreCase(username))
-                .findFirst();
+        if (username == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(users.get(canonicalUsername(username)));
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        return Collections.unmodifiableCollection(users.values());
+    }
+
+    @Override
+    public List<User> getFollowers(User user, String after, int limit) {
+        Iterator<User> followers = iterateFollowers(user, after);
+        List<User> page = new ArrayList<>();
+        while (page.size() < limit && followers.hasNext()) {
+            page.add(followers.next());
+        }
+        return page;
+    }
+
+    @Override
+    public Iterator<User> iterateFollowers(User user, String after) {
+        int afterId = -1;
+        if (after != null) {
+            Optional<User> cursor = getUser(after);
+            if (!cursor.isPresent()) {
+                return Collections.emptyIterator();
+            }
+            afterId = cursor.get().getId();
+        }
+        return user.followersAfter(afterId);
+    }
+
+    @Override
+    public boolean follow(User follower, User followed) {
+        if (!follower.follow(followed)) {
+            return false;
+        }
+        timelineEngine.followed(follower, followed);
+        return true;
+    }
+
+    @Override
+    public boolean unfollow(User follower, User followed) {
+        if (!follower.unfollow(followed)) {
+            return false;
+        }
+        timelineEngine.unfollowed(follower, followed);
+        return true;
     }
 
     @Override
-    public Set<User> getUsers() {
-        return users;
+    public boolean[] followAll(List<Follow> follows) {
+        boolean[] followed = new boolean[follows.size()];
+        for (int i = 0; i < followed.length; i++) {
+            followed[i] = follow(follows.get(i).getFollower(), follows.get(i).getFollowed());
+        }
+        return followed;
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        message.getAuthor().addMessage(message);
+        timelineEngine.messagePosted(message);
+    }
+
+    @Override
+    public void addMessages(List<Message> messages) {
+        for (Message message : messages) {
+            addMessage(message);
+        }
+    }
+
+    @Override
+    public List<Message> getWall(User user, long before, int limit) {
+        return MessageMerger.take(iterateWall(user, before), limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateWall(User user, long before) {
+        return new WallCursor(user.getWall(), before);
+    }
+
+    @Override
+    public List<Message> getTimeline(User user, long before, int limit) {
+        return timelineEngine.getTimeline(user, before, limit, this::isStored);
+    }
+
+    @Override
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        return timelineEngine.iterateTimeline(user, before, expectedCount, this::isStored);
+    }
+
+    /**
+     * The timelines only include the messages of the users stored here, which are all the followed users, unless the
+     * registry is shared with other data stores. In that case, the timelines are merged from all of them.
+     */
+    private boolean isStored(User user) {
+        return users.get(canonicalUsername(user.getUsername())) == user;
+    }
+
+    /**
+     * Usernames are case-insensitive, so they are all indexed in lower case.
+     * The root locale is used, so that the result does not depend on the locale of the machine running the server.
+     */
+    static String canonicalUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
     }
 
     @Override
     public String toString() {
         return "InMemoryDataStore{" +
-                "users=" + users +
+                "users=" + users.values() +
                 '}';
     }
 }
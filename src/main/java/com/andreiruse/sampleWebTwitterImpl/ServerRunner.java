@@ -1,35 +1,74 @@
 package com.andreiruse.sampleWebTwitterImpl;
 
+import com.andreiruse.sampleWebTwitterImpl.ingest.PostPipeline;
+import com.andreiruse.sampleWebTwitterImpl.metrics.InstrumentedDataStore;
+import com.andreiruse.sampleWebTwitterImpl.metrics.Metrics;
+import com.andreiruse.sampleWebTwitterImpl.metrics.MetricsInterceptor;
+import com.andreiruse.sampleWebTwitterImpl.persistence.FsyncPolicy;
+import com.andreiruse.sampleWebTwitterImpl.persistence.JournaledDataStore;
+import com.andreiruse.sampleWebTwitterImpl.search.IndexedDataStore;
+import com.andreiruse.sampleWebTwitterImpl.search.MessageIndex;
+import com.andreiruse.sampleWebTwitterImpl.sharding.ShardedDataStore;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineCache;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineEngine;
+import com.andreiruse.sampleWebTwitterImpl.trends.TrendTracker;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
 
 /**
  * Entry point for this sample application. Depends on Spring Boot, and requires no other configuration.
  * Starts a web server on the local machine, on port 8080.
  * Automatically wires the available controllers under the com.andreiruse.hsbc.codechallenge.controllers package, which
- * as of now, include MessageController and UsersController.
+ * as of now, include MessageController, UsersController, BulkController, SearchController and TrendsController.
  * <p>
  * As this class is also tagged with @{@link RestController}, it is a controller on its own, exposing the /status endpoint.
  * <p>
  * List of available endpoints:
  * GET /users/{username}/wall
  * POST /users/{username}/follow/{who}
+ * DELETE /users/{username}/follow/{who}
  * GET /users/{username}/timeline
  * GET /users/{username}/followers
  * POST /users/{username}
  * POST /message
+ * POST /bulk/users
+ * POST /bulk/follows
+ * POST /bulk/messages
+ * GET /search
+ * GET /trends
  * GET /status
+ * GET /status/timeline-cache
+ * GET /metrics
  */
 @EnableAutoConfiguration
 @SpringBootApplication(scanBasePackages = "com.andreiruse.sampleWebTwitterImpl.controller")
 @RestController
 public class ServerRunner {
+    @Autowired
+    private TimelineEngine timelineEngine;
+    @Autowired
+    private Metrics metrics;
 
     /**
      * Start point for the application
@@ -40,17 +79,195 @@ public class ServerRunner {
         SpringApplication.run(ServerRunner.class, args);
     }
 
+    /**
+     * The engine precomputing the users' timelines. It can be tuned with the timeline.inbox-capacity,
+     * timeline.fan-out-threshold and timeline.parallel-threshold properties (e.g. --timeline.fan-out-threshold=5000 on
+     * the command line).
+     * <p>
+     * The heads of the most requested timelines are cached in a {@link TimelineCache}, bounded by the
+     * timeline.cache.max-entries and timeline.cache.max-weight (number of messages) properties, and expiring after
+     * timeline.cache.ttl-ms milliseconds. Setting timeline.cache.max-entries to 0 disables the cache. It is also
+     * disabled when the users are sharded (see {@link #dataStore}), as every shard then has its own engine, and this one
+     * only provides their settings.
+     *
+     * @param inboxCapacity     the number of messages kept in each user's precomputed timeline
+     * @param fanOutThreshold   the number of followers above which an author's messages are merged into timelines on read
+     * @param parallelThreshold the number of walls merged into a timeline page from which they are merged in parallel, or
+     *                          null for the default one, depending on the number of processors
+     * @param cacheMaxEntries   the maximum number of cached timelines, or 0 not to cache them
+     * @param cacheMaxWeight    the maximum number of cached messages
+     * @param cacheTtlMillis    the time after which a cached timeline is merged again
+     * @param shards            the number of shards the users are partitioned across
+     * @return the timeline engine
+     */
+    @Bean
+    public TimelineEngine timelineEngine(@Value("${timeline.inbox-capacity:" + TimelineEngine.DEFAULT_INBOX_CAPACITY + "}") int inboxCapacity,
+                                         @Value("${timeline.fan-out-threshold:" + TimelineEngine.DEFAULT_FAN_OUT_THRESHOLD + "}") int fanOutThreshold,
+                                         @Value("${timeline.parallel-threshold:#{null}}") Integer parallelThreshold,
+                                         @Value("${timeline.cache.max-entries:" + TimelineCache.DEFAULT_MAX_ENTRIES + "}") int cacheMaxEntries,
+                                         @Value("${timeline.cache.max-weight:" + TimelineCache.DEFAULT_MAX_WEIGHT + "}") long cacheMaxWeight,
+                                         @Value("${timeline.cache.ttl-ms:" + TimelineCache.DEFAULT_TTL_MILLIS + "}") long cacheTtlMillis,
+                                         @Value("${datastore.shards:1}") int shards) {
+        TimelineCache cache = cacheMaxEntries > 0 && shards <= 1 ? new TimelineCache(cacheMaxEntries, cacheMaxWeight, cacheTtlMillis) : null;
+        return new TimelineEngine(inboxCapacity, fanOutThreshold, cache,
+                parallelThreshold != null ? parallelThreshold : TimelineEngine.defaultParallelThreshold());
+    }
+
     /**
      * This handles the data store that backs the entire application.
      * This store is an implementation of the {@link DataStore} interface, and is defaulted to {@link InMemoryDataStore}.
      * <p>
      * The wiring between this class and the 2 controllers is done by the framework.
+     * <p>
+     * When the datastore.shards property is above 1, the users are partitioned across as many in-process shards by a
+     * {@link ShardedDataStore}, each with its own timeline engine, with the settings of the given one. The timelines are
+     * then not cached, so neither the /status/timeline-cache endpoint nor the metrics report a cache.
+     * <p>
+     * When the datastore.journal.directory property is set, the data is persisted in that directory by a
+     * {@link JournaledDataStore}, and recovered on startup. The log is forced to disk according to the
+     * datastore.journal.fsync property (BATCH or INTERVAL, see {@link FsyncPolicy}), and a snapshot is taken every
+     * datastore.journal.snapshot-interval-ms milliseconds. The store is closed by the framework on shutdown.
+     * <p>
+     * The messages are added to the search index, and their hashtags counted for the trends, by an
+     * {@link IndexedDataStore}, below the journal, so that the recovered messages are indexed too. Every operation of the store is timed by an {@link InstrumentedDataStore}.
      *
+     * @param timelineEngine         the engine precomputing the timelines
+     * @param messageIndex           the index of the messages' content
+     * @param trendTracker           the counter of the hashtags
+     * @param metrics                the registry of the metrics
+     * @param shards                 the number of shards the users are partitioned across
+     * @param journalDirectory       the directory holding the persisted data, or an empty string to keep the data in memory only
+     * @param fsyncPolicy            when the journal is forced to disk
+     * @param fsyncIntervalMillis    the maximum time between two forces of the journal, with the INTERVAL policy
+     * @param snapshotIntervalMillis the time between two snapshots of the journal
      * @return an instance of the data store
      */
     @Bean
-    public DataStore dataStore() {
-        return new InMemoryDataStore();
+    public DataStore dataStore(TimelineEngine timelineEngine,
+                               MessageIndex messageIndex,
+                               TrendTracker trendTracker,
+                               Metrics metrics,
+                               @Value("${datastore.shards:1}") int shards,
+                               @Value("${datastore.journal.directory:}") String journalDirectory,
+                               @Value("${datastore.journal.fsync:BATCH}") FsyncPolicy fsyncPolicy,
+                               @Value("${datastore.journal.fsync-interval-ms:100}") long fsyncIntervalMillis,
+                               @Value("${datastore.journal.snapshot-interval-ms:300000}") long snapshotIntervalMillis) throws IOException {
+        DataStore dataStore = shards > 1
+                ? ShardedDataStore.inMemory(shards, () -> new TimelineEngine(timelineEngine.getInboxCapacity(), timelineEngine.getFanOutThreshold(), null, timelineEngine.getParallelThreshold()))
+                : new InMemoryDataStore(timelineEngine);
+        dataStore = new IndexedDataStore(dataStore, messageIndex, trendTracker);
+        if (!journalDirectory.isEmpty()) {
+            dataStore = new JournaledDataStore(dataStore, Paths.get(journalDirectory), fsyncPolicy, fsyncIntervalMillis, snapshotIntervalMillis);
+        }
+        return new InstrumentedDataStore(dataStore, metrics);
+    }
+
+    /**
+     * The pipeline applying the posted messages in the background, in batches, only created when the
+     * message.ingest.async property is true (see {@link com.andreiruse.sampleWebTwitterImpl.controller.MessageController}).
+     * The pipeline is sized with the message.ingest.queue-capacity, message.ingest.batch-size and
+     * message.ingest.consumers properties, and is closed by the framework on shutdown, once the queued messages are applied.
+     *
+     * @param dataStore     the data store the messages are applied to
+     * @param metrics       the registry of the metrics
+     * @param queueCapacity the number of messages waiting to be applied, above which new ones are rejected
+     * @param batchSize     the maximum number of messages applied at once
+     * @param consumerCount the number of threads applying the messages
+     * @return the pipeline
+     */
+    @Bean
+    @ConditionalOnProperty(name = "message.ingest.async", havingValue = "true")
+    public PostPipeline postPipeline(DataStore dataStore,
+                                     Metrics metrics,
+                                     @Value("${message.ingest.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${message.ingest.batch-size:256}") int batchSize,
+                                     @Value("${message.ingest.consumers:2}") int consumerCount) {
+        return new PostPipeline(dataStore, metrics, queueCapacity, batchSize, consumerCount);
+    }
+
+    /**
+     * The inverted index of the messages' content, behind the /search endpoint
+     *
+     * @return the index
+     */
+    @Bean
+    public MessageIndex messageIndex() {
+        return new MessageIndex();
+    }
+
+    /**
+     * The counter of the hashtags, behind the /trends endpoint. It keeps the last trends.window-minutes minutes, in
+     * one-minute buckets.
+     *
+     * @param windowMinutes the longest window the trends can be listed over
+     * @return the tracker
+     */
+    @Bean
+    public TrendTracker trendTracker(@Value("${trends.window-minutes:" + TrendTracker.DEFAULT_BUCKET_COUNT + "}") int windowMinutes) {
+        return new TrendTracker(windowMinutes, TrendTracker.DEFAULT_BUCKET_MILLIS, Clock.systemUTC());
+    }
+
+    /**
+     * The registry of the metrics exposed on /metrics. It also exposes the counters of the timeline cache, if any, and
+     * the size of the search index.
+     *
+     * @param timelineEngine the engine precomputing the timelines
+     * @param messageIndex   the index of the messages' content
+     * @return the registry of the metrics
+     */
+    @Bean
+    public Metrics metrics(TimelineEngine timelineEngine, MessageIndex messageIndex) {
+        Metrics metrics = new Metrics();
+        metrics.gauge("search_index_terms", "Distinct terms in the search index", "gauge", messageIndex::getTermCount);
+        metrics.gauge("search_index_postings", "Messages listed under the terms of the search index", "gauge", messageIndex::getPostingCount);
+        TimelineCache cache = timelineEngine.getCache();
+        if (cache != null) {
+            metrics.gauge("timeline_cache_hits_total", "Timeline pages served from the cache", "counter", () -> cache.getStats().getHits());
+            metrics.gauge("timeline_cache_misses_total", "Timeline pages merged, as they were not cached", "counter", () -> cache.getStats().getMisses());
+            metrics.gauge("timeline_cache_evictions_total", "Cached timelines evicted to fit the cache bounds", "counter", () -> cache.getStats().getEvictions());
+            metrics.gauge("timeline_cache_entries", "Cached timelines", "gauge", () -> cache.getStats().getSize());
+        }
+        return metrics;
+    }
+
+    /**
+     * Times every request, by controller method, with a {@link MetricsInterceptor}.
+     *
+     * @param metrics the registry of the metrics
+     * @return the configuration of Spring MVC
+     */
+    @Bean
+    public WebMvcConfigurerAdapter metricsConfigurer(Metrics metrics) {
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new MetricsInterceptor(metrics));
+            }
+        };
+    }
+
+    /**
+     * Selects how the requests are run, with the server.execution-mode property (see {@link ExecutionMode}).
+     * <p>
+     * In the {@link ExecutionMode#VIRTUAL_THREADS} mode, Tomcat keeps accepting and parsing the requests on its
+     * (non-blocking) NIO connector, but hands every request to a new virtual thread, instead of a pooled platform thread.
+     * The controllers are unchanged, and blocking in them only parks the virtual thread. The number of connections
+     * is still bounded by server.tomcat.max-connections (10000 by default).
+     *
+     * @param executionMode how the requests are run
+     * @return the customizer of the web server
+     */
+    @Bean
+    public EmbeddedServletContainerCustomizer executionModeCustomizer(@Value("${server.execution-mode:PLATFORM_THREADS}") ExecutionMode executionMode) {
+        return container -> {
+            if (executionMode == ExecutionMode.VIRTUAL_THREADS && container instanceof TomcatEmbeddedServletContainerFactory) {
+                ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                    if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(VirtualThreads.newExecutor());
+                    }
+                });
+            }
+        };
     }
 
     /**
@@ -62,4 +279,30 @@ public class ServerRunner {
     ResponseEntity serverStatus() {
         return new ResponseEntity<>(HttpStatus.OK);
     }
+
+    /**
+     * Exposes the latency histograms and counters of the application, in the Prometheus text format.
+     *
+     * @param response the response the metrics are written to
+     * @throws IOException if the metrics cannot be written
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    void metricsEndpoint(HttpServletResponse response) throws IOException {
+        response.setContentType(Metrics.CONTENT_TYPE);
+        metrics.write(response.getWriter());
+    }
+
+    /**
+     * Exposes the hit, miss and eviction counters of the timeline cache.
+     *
+     * @return HTTP 200 with the counters, or HTTP 404 if the timelines are not cached
+     */
+    @RequestMapping(value = "/status/timeline-cache", method = RequestMethod.GET)
+    ResponseEntity<TimelineCache.Stats> timelineCacheStatus() {
+        TimelineCache cache = timelineEngine.getCache();
+        if (cache == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(cache.getStats(), HttpStatus.OK);
+    }
 }
@@ -0,0 +1,33 @@
+package com.andreiruse.sampleWebTwitterImpl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of the running JVM.
+ * <p>
+ * The application is compiled for Java 9, which has no virtual threads, so the executor is looked up reflectively, and
+ * only when the {@link ExecutionMode#VIRTUAL_THREADS} mode is selected.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return an executor starting a new virtual thread for every task
+     * @throws IllegalStateException if the running JVM does not support virtual threads
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later, but the server runs on Java "
+                    + System.getProperty("java.version"), e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create the virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.andreiruse.sampleWebTwitterImpl.controller;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * REST controller for the /bulk/ endpoints. It handles the ingestion of many users, follows or messages in a single request, e.g. when migrating data.
+ * <p>
+ * The request body is either a JSON array of items, or a stream of newline-delimited JSON items (NDJSON). The items
+ * are read one by one from the request stream, validated like the single-item endpoints do, and applied to the data
+ * store in batches of {@link #BATCH_SIZE}, so that the cost of applying them (e.g. writing them to disk) is shared.
+ * <p>
+ * The response lists the result of every item, in order, with the HTTP status code the single-item endpoint would have returned.
+ * If the body is not valid JSON, the items read before the error are still applied, and the response is a HTTP 400, listing their results.
+ */
+@RestController
+public class BulkController {
+    static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private DataStore dataStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Items: {"username": "..."}
+     */
+    @RequestMapping(value = "/bulk/users", method = RequestMethod.POST)
+    ResponseEntity<List<ItemResult>> users(InputStream body) throws IOException {
+        List<ItemResult> results = new ArrayList<>();
+        List<User> batch = new ArrayList<>();
+        Runnable applyBatch = () -> {
+            boolean[] stored = dataStore.storeUsers(batch);
+            for (int i = 0; i < stored.length; i++) {
+                results.add(new ItemResult(results.size(), stored[i] ? HttpStatus.CREATED : HttpStatus.BAD_REQUEST));
+            }
+            batch.clear();
+        };
+        //Items that are rejected before reaching the data store are reported once the batch before them is applied, to keep the results in order
+        return ingest(body, UserInput.class, results, batch::size, applyBatch, input -> {
+            if (input.username == null || input.username.isEmpty()) {
+                applyBatch.run();
+                results.add(new ItemResult(results.size(), HttpStatus.BAD_REQUEST));
+            } else {
+                batch.add(new User(input.username));
+            }
+        });
+    }
+
+    /**
+     * Items: {"username": "...", "who": "..."}, where username follows who
+     */
+    @RequestMapping(value = "/bulk/follows", method = RequestMethod.POST)
+    ResponseEntity<List<ItemResult>> follows(InputStream body) throws IOException {
+        List<ItemResult> results = new ArrayList<>();
+        List<Follow> batch = new ArrayList<>();
+        Runnable applyBatch = () -> {
+            boolean[] followed = dataStore.followAll(batch);
+            for (int i = 0; i < followed.length; i++) {
+                results.add(new ItemResult(results.size(), followed[i] ? HttpStatus.CREATED : HttpStatus.OK));
+            }
+            batch.clear();
+        };
+        return ingest(body, FollowInput.class, results, batch::size, applyBatch, input -> {
+            Optional<User> currentUser = dataStore.getUser(input.username);
+            Optional<User> followedUser = dataStore.getUser(input.who);
+            if (!currentUser.isPresent() || !followedUser.isPresent()) {
+                applyBatch.run();
+                results.add(new ItemResult(results.size(), HttpStatus.BAD_REQUEST));
+            } else {
+                batch.add(new Follow(currentUser.get(), followedUser.get()));
+            }
+        });
+    }
+
+    /**
+     * Items: {"username": "...", "messageBody": "..."}, as for POST /message
+     */
+    @RequestMapping(value = "/bulk/messages", method = RequestMethod.POST)
+    ResponseEntity<List<ItemResult>> messages(InputStream body) throws IOException {
+        List<ItemResult> results = new ArrayList<>();
+        List<Message> batch = new ArrayList<>();
+        Runnable applyBatch = () -> {
+            dataStore.addMessages(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(new ItemResult(results.size(), HttpStatus.CREATED));
+            }
+            batch.clear();
+        };
+        return ingest(body, MessageController.MessageInput.class, results, batch::size, applyBatch, input -> {
+            Optional<User> userMatch = dataStore.getUser(input.username);
+            if (!userMatch.isPresent()) {
+                applyBatch.run();
+                results.add(new ItemResult(results.size(), HttpStatus.NOT_FOUND));
+                return;
+            }
+            Message message = input.messageBody == null ? null : new Message(userMatch.get(), input.messageBody);
+            if (message == null || !message.isValid()) {
+                applyBatch.run();
+                results.add(new ItemResult(results.size(), HttpStatus.BAD_REQUEST));
+                return;
+            }
+            batch.add(message);
+        });
+    }
+
+    /**
+     * Reads the items one by one from the body, hands them to the item handler, and applies the batch whenever it is full, and at the end.
+     */
+    private <T> ResponseEntity<List<ItemResult>> ingest(InputStream body, Class<T> itemType, List<ItemResult> results,
+                                                        IntSupplier batchSize, Runnable applyBatch, Consumer<T> itemHandler) throws IOException {
+        //readValues iterates over the elements of a root-level array, as well as over a sequence of root-level values
+        try (MappingIterator<T> items = objectMapper.readerFor(itemType).readValues(body)) {
+            while (items.hasNextValue()) {
+                itemHandler.accept(items.nextValue());
+                if (batchSize.getAsInt() >= BATCH_SIZE) {
+                    applyBatch.run();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            applyBatch.run();
+            return new ResponseEntity<>(results, HttpStatus.BAD_REQUEST);
+        }
+        applyBatch.run();
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    static class UserInput {
+        public String username;
+    }
+
+    static class FollowInput {
+        public String username;
+        public String who;
+    }
+
+    /**
+     * The result of a single item: its position in the request, and the HTTP status code the single-item endpoint would have returned
+     */
+    static class ItemResult {
+        public final int index;
+        public final int status;
+
+        ItemResult(int index, HttpStatus status) {
+            this.index = index;
+            this.status = status.value();
+        }
+    }
+}
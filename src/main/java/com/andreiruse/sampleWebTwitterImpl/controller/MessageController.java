@@ -3,7 +3,10 @@ package com.andreiruse.sampleWebTwitterImpl.controller;
 import com.andreiruse.sampleWebTwitterImpl.DataStore;
 import com.andreiruse.sampleWebTwitterImpl.domain.Message;
 import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.ingest.PostPipeline;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -12,6 +15,11 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * REST controller for the /message endpoints. It handles the creation of new messages.
@@ -19,6 +27,13 @@ import java.util.Optional;
  * This is backed by the same data store as the rest of the application, which is wired in by the SpringBoot framework.
  * <p>
  * Consistently with the rest of the codebase, the rest method responds with a typed {@link ResponseEntity}, that includes the response content, together with the HTTP status code.
+ * <p>
+ * When the message.ingest.async property is true, the validated messages are handed to a {@link PostPipeline}, which
+ * applies them in the background, in batches. The post is then acknowledged with HTTP 202 (Accepted), before the
+ * message shows on the walls and timelines, or rejected with HTTP 503 (Service Unavailable) and a Retry-After header
+ * when the pipeline is full. With the message.ingest.read-your-writes property, the response waits until the message
+ * has been applied (HTTP 201), so that the author sees it on the next read; if that takes longer than
+ * message.ingest.read-your-writes-timeout-ms, the post is acknowledged with HTTP 202 instead.
  */
 
 @RestController
@@ -26,21 +41,60 @@ public class MessageController {
     @Autowired
     private DataStore dataStore;
 
+    @Autowired(required = false)
+    private PostPipeline postPipeline;
+
+    @Value("${message.ingest.read-your-writes:false}")
+    private boolean readYourWrites;
+
+    @Value("${message.ingest.read-your-writes-timeout-ms:5000}")
+    private long readYourWritesTimeoutMillis;
+
+    /*
+     * Seconds a client is asked to wait before posting again, when the pipeline is full
+     */
+    static final String RETRY_AFTER_SECONDS = "1";
+
     @RequestMapping(value = "/message", method = RequestMethod.POST)
-    ResponseEntity postMessage(@RequestBody MessageInput messageInput) {
+    ResponseEntity<Void> postMessage(@RequestBody MessageInput messageInput) {
         Optional<User> userMatch = dataStore.getUser(messageInput.username);
         if (!userMatch.isPresent()) {
-            return new ResponseEntity(HttpStatus.NOT_FOUND); //HTTP 404
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND); //HTTP 404
         }
         User user = userMatch.get();
         Message message = new Message(user, messageInput.messageBody);
 
         if (!message.isValid()) {
-            return new ResponseEntity(HttpStatus.BAD_REQUEST); //HTTP 400
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST); //HTTP 400
         }
 
-        user.addMessage(message);
-        return new ResponseEntity(HttpStatus.CREATED); //HTTP 201
+        if (postPipeline == null) {
+            dataStore.addMessage(message);
+            return new ResponseEntity<>(HttpStatus.CREATED); //HTTP 201
+        }
+
+        CompletableFuture<Message> applied;
+        try {
+            applied = postPipeline.submit(message);
+        } catch (RejectedExecutionException e) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE); //HTTP 503
+        }
+        if (!readYourWrites) {
+            return new ResponseEntity<>(HttpStatus.ACCEPTED); //HTTP 202
+        }
+        try {
+            applied.get(readYourWritesTimeoutMillis, TimeUnit.MILLISECONDS);
+            return new ResponseEntity<>(HttpStatus.CREATED); //HTTP 201
+        } catch (TimeoutException e) {
+            return new ResponseEntity<>(HttpStatus.ACCEPTED); //HTTP 202
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.ACCEPTED); //HTTP 202
+        } catch (ExecutionException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR); //HTTP 500
+        }
     }
 
     static class MessageInput {
@@ -0,0 +1,38 @@
+package com.andreiruse.sampleWebTwitterImpl.controller;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.search.MessageIndex;
+import com.andreiruse.sampleWebTwitterImpl.search.Tokenizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * REST controller for the /search endpoint. It lists the newest messages containing all the words, hashtags (#tag) and
+ * mentions (&#64;username) of the query, from the {@link MessageIndex} maintained as the messages are posted.
+ * <p>
+ * The results are paginated like the walls and timelines: newest first, with the identifier of the last message of a
+ * full page in the X-Next-Cursor header, to be passed as the before parameter of the next request.
+ */
+@RestController
+public class SearchController {
+    @Autowired
+    private MessageIndex messageIndex;
+
+    @RequestMapping(value = "/search", method = RequestMethod.GET)
+    ResponseEntity<List<Message>> search(@RequestParam(value = "q") String query,
+                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                         @RequestParam(value = "before", required = false) Long before) {
+        if ((limit != null && limit <= 0) || Tokenizer.terms(query).isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST); //HTTP 400
+        }
+        int pageSize = UsersController.pageSize(limit);
+        return UsersController.messagePage(messageIndex.search(query, UsersController.cursor(before), pageSize), pageSize);
+    }
+}
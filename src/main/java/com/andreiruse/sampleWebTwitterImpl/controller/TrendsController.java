@@ -0,0 +1,40 @@
+package com.andreiruse.sampleWebTwitterImpl.controller;
+
+import com.andreiruse.sampleWebTwitterImpl.trends.Trend;
+import com.andreiruse.sampleWebTwitterImpl.trends.TrendTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REST controller for the /trends endpoint. It lists the most used hashtags over the last minutes, as counted by the
+ * {@link TrendTracker} while the messages are posted.
+ * <p>
+ * The window defaults to the longest one the tracker keeps (one hour by default), and longer windows are capped to it.
+ */
+@RestController
+public class TrendsController {
+    static final int DEFAULT_TREND_COUNT = 10;
+    static final int MAX_TREND_COUNT = 100;
+
+    @Autowired
+    private TrendTracker trendTracker;
+
+    @RequestMapping(value = "/trends", method = RequestMethod.GET)
+    ResponseEntity<List<Trend>> getTrends(@RequestParam(value = "minutes", required = false) Integer minutes,
+                                          @RequestParam(value = "limit", required = false) Integer limit) {
+        if ((minutes != null && minutes <= 0) || (limit != null && limit <= 0)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST); //HTTP 400
+        }
+        long windowMillis = minutes == null ? trendTracker.getMaxWindowMillis() : TimeUnit.MINUTES.toMillis(minutes);
+        int count = limit == null ? DEFAULT_TREND_COUNT : Math.min(limit, MAX_TREND_COUNT);
+        return new ResponseEntity<>(trendTracker.top(windowMillis, count), HttpStatus.OK);
+    }
+}
@@ -3,18 +3,27 @@ package com.andreiruse.sampleWebTwitterImpl.controller;
 import com.andreiruse.sampleWebTwitterImpl.DataStore;
 import com.andreiruse.sampleWebTwitterImpl.domain.Message;
 import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Comparator;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * REST controller for the /users/ endpoints. It handles operations around the user object:
@@ -27,6 +36,14 @@ import java.util.stream.Collectors;
  * This is backed by the same data store as the rest of the application, which is wired in by the SpringBoot framework.
  * <p>
  * All methods respond with a typed {@link ResponseEntity}, that includes the response content, together with the HTTP status code.
+ * <p>
+ * The wall, timeline and followers endpoints also have a streaming mode, selected by requesting the
+ * application/x-ndjson media type (Accept header). The entries are then written one by one, as newline-delimited
+ * JSON, while they are read from the data store, so the memory used by a request does not depend on the size of the
+ * result. In streaming mode, the results are not limited unless a limit is given.
+ * <p>
+ * Without a limit nor a cursor, the wall, timeline and followers endpoints return the whole result, as they did before
+ * they were paginated; as soon as either is given, they return a page of at most {@link #MAX_PAGE_SIZE} entries.
  */
 @RestController
 public class UsersController {
@@ -36,25 +53,56 @@ public class UsersController {
     @Autowired
     private DataStore dataStore;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /*
-     * This field is used to sort the messages in reverse chronological order, in a consistent way, across different endpoints.
+     * Page sizes used by the paginated endpoints, when the client does not ask for a specific limit, and the upper bound of what a client may ask for.
      */
-    private static final Comparator<Message> MESSAGE_COMPARATOR = Comparator.comparing(Message::getCreatedAt).reversed();
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /*
+     * Response header carrying the cursor of the next page. It is only set when the current page is full, so there may be more results.
+     * For the followers, the cursor is the last username of the page. For the wall and the timeline, it is the identifier of the last message of the page.
+     */
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final String NDJSON = "application/x-ndjson";
 
     @RequestMapping(value = "/users/{username}/wall", method = RequestMethod.GET)
-    ResponseEntity<List<Message>> getWall(@PathVariable(value = "username") String username) {
+    ResponseEntity<List<Message>> getWall(@PathVariable(value = "username") String username,
+                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                          @RequestParam(value = "before", required = false) Long before) {
+        if (limit != null && limit <= 0) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         Optional<User> userMatch = dataStore.getUser(username);
         if (userMatch.isPresent()) {
-            User user = userMatch.get();
-
-            List<Message> wall = user.getWall();
-            wall.sort(MESSAGE_COMPARATOR);
-            return new ResponseEntity<>(wall, HttpStatus.OK);
+            int pageSize = pageSize(limit, before);
+            return messagePage(dataStore.getWall(userMatch.get(), cursor(before), pageSize), pageSize);
         } else {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
     }
 
+    @RequestMapping(value = "/users/{username}/wall", method = RequestMethod.GET, produces = NDJSON)
+    void streamWall(@PathVariable(value = "username") String username,
+                    @RequestParam(value = "limit", required = false) Integer limit,
+                    @RequestParam(value = "before", required = false) Long before,
+                    HttpServletResponse response) throws IOException {
+        if (limit != null && limit <= 0) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        Optional<User> userMatch = dataStore.getUser(username);
+        if (userMatch.isPresent()) {
+            stream(response, dataStore.iterateWall(userMatch.get(), cursor(before)), streamLimit(limit), Message.class);
+        } else {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
     @RequestMapping(value = "/users/{username}/follow/{who}", method = RequestMethod.POST)
     ResponseEntity<Object> follow(@PathVariable String username, @PathVariable String who) {
         Optional<User> currentUser = dataStore.getUser(username);
@@ -62,48 +110,143 @@ public class UsersController {
         if (!currentUser.isPresent() || !followedUser.isPresent()) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
-        currentUser.get().follow(followedUser.get());
+        boolean created = dataStore.follow(currentUser.get(), followedUser.get());
 
-        return new ResponseEntity<>(HttpStatus.CREATED);
+        return new ResponseEntity<>(created ? HttpStatus.CREATED : HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/users/{username}/follow/{who}", method = RequestMethod.DELETE)
+    ResponseEntity<Object> unfollow(@PathVariable String username, @PathVariable String who) {
+        Optional<User> currentUser = dataStore.getUser(username);
+        Optional<User> followedUser = dataStore.getUser(who);
+        if (!currentUser.isPresent() || !followedUser.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        dataStore.unfollow(currentUser.get(), followedUser.get());
+
+        return new ResponseEntity<>(HttpStatus.OK);
     }
 
     @RequestMapping(value = "/users/{username}/followers/", method = RequestMethod.GET)
-    ResponseEntity<List<User>> followers(@PathVariable String username) {
+    ResponseEntity<List<User>> followers(@PathVariable String username,
+                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                         @RequestParam(value = "after", required = false) String after) {
         Optional<User> userMatch = dataStore.getUser(username);
-        if (!userMatch.isPresent()) {
+        if (!userMatch.isPresent() || (limit != null && limit <= 0)) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
-        User currentUser = userMatch.get();
-        List<User> followers = dataStore.getUsers().stream()
-                .filter(user -> user.getFollowing().contains(currentUser))
-                .collect(Collectors.toList());
-        return new ResponseEntity<>(followers, HttpStatus.OK);
+        int pageSize = pageSize(limit, after);
+        List<User> followers = dataStore.getFollowers(userMatch.get(), after, pageSize);
+
+        HttpHeaders headers = new HttpHeaders();
+        if (followers.size() == pageSize) {
+            headers.set(NEXT_CURSOR_HEADER, followers.get(followers.size() - 1).getUsername());
+        }
+        return new ResponseEntity<>(followers, headers, HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/users/{username}/followers/", method = RequestMethod.GET, produces = NDJSON)
+    void streamFollowers(@PathVariable String username,
+                         @RequestParam(value = "limit", required = false) Integer limit,
+                         @RequestParam(value = "after", required = false) String after,
+                         HttpServletResponse response) throws IOException {
+        Optional<User> userMatch = dataStore.getUser(username);
+        if (!userMatch.isPresent() || (limit != null && limit <= 0)) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        stream(response, dataStore.iterateFollowers(userMatch.get(), after), streamLimit(limit), User.class);
     }
 
     @RequestMapping(value = "/users/{username}/timeline", method = RequestMethod.GET)
-    ResponseEntity<List<Message>> getTimeline(@PathVariable(value = "username") String username) {
+    ResponseEntity<List<Message>> getTimeline(@PathVariable(value = "username") String username,
+                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "before", required = false) Long before) {
+        if (limit != null && limit <= 0) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         Optional<User> userMatch = dataStore.getUser(username);
         if (userMatch.isPresent()) {
-            User user = userMatch.get();
-            List<Message> messagesByFollowedUsers = user.getFollowing().stream()
-                    .flatMap(messages -> messages.getWall().stream())
-                    .sorted(MESSAGE_COMPARATOR)
-                    .collect(Collectors.toList());
-            return new ResponseEntity<>(messagesByFollowedUsers, HttpStatus.OK);
+            int pageSize = pageSize(limit, before);
+            return messagePage(dataStore.getTimeline(userMatch.get(), cursor(before), pageSize), pageSize);
         } else {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
     }
 
-    @RequestMapping(value = "/users/{username}", method = RequestMethod.POST)
-    ResponseEntity<Object> newUser(@PathVariable(value = "username") String username) {
+    @RequestMapping(value = "/users/{username}/timeline", method = RequestMethod.GET, produces = NDJSON)
+    void streamTimeline(@PathVariable(value = "username") String username,
+                        @RequestParam(value = "limit", required = false) Integer limit,
+                        @RequestParam(value = "before", required = false) Long before,
+                        HttpServletResponse response) throws IOException {
+        if (limit != null && limit <= 0) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
         Optional<User> userMatch = dataStore.getUser(username);
         if (userMatch.isPresent()) {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            int streamLimit = streamLimit(limit);
+            stream(response, dataStore.iterateTimeline(userMatch.get(), cursor(before), streamLimit), streamLimit, Message.class);
+        } else {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
         }
+    }
 
+    @RequestMapping(value = "/users/{username}", method = RequestMethod.POST)
+    ResponseEntity<Object> newUser(@PathVariable(value = "username") String username) {
         User user = new User(username);
-        dataStore.storeUser(user);
+        if (!dataStore.storeUser(user)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         return new ResponseEntity<>(HttpStatus.CREATED);
     }
+
+    static int pageSize(Integer limit) {
+        return limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @return the page size, or no limit at all if the client asks for neither a limit nor a cursor
+     */
+    private static int pageSize(Integer limit, Object cursor) {
+        return limit == null && cursor == null ? Integer.MAX_VALUE : pageSize(limit);
+    }
+
+    static long cursor(Long before) {
+        return before == null ? Long.MAX_VALUE : before;
+    }
+
+    static ResponseEntity<List<Message>> messagePage(List<Message> messages, int pageSize) {
+        HttpHeaders headers = new HttpHeaders();
+        if (messages.size() == pageSize) {
+            headers.set(NEXT_CURSOR_HEADER, Long.toString(messages.get(messages.size() - 1).getId()));
+        }
+        return new ResponseEntity<>(messages, headers, HttpStatus.OK);
+    }
+
+    private static int streamLimit(Integer limit) {
+        return limit == null ? Integer.MAX_VALUE : limit;
+    }
+
+    /**
+     * Writes the entries as newline-delimited JSON, straight from the iterator to the response stream.
+     * The generator is not flushed after each entry, so that the output is sent in buffer-sized chunks.
+     */
+    private void stream(HttpServletResponse response, Iterator<?> entries, int limit, Class<?> entryType) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        ObjectWriter writer = objectMapper.writerFor(entryType).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            int count = 0;
+            while (count < limit && entries.hasNext()) {
+                writer.writeValue(generator, entries.next());
+                count++;
+            }
+            if (count > 0) {
+                generator.writeRaw('\n');
+            }
+        }
+    }
 }
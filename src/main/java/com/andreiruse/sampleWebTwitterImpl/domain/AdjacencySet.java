@@ -0,0 +1,329 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of user identifiers (see {@link UserRegistry}), holding one side of a user's follow edges.
+ * <p>
+ * The identifiers are kept sorted, and compressed: they are split into blocks of 64, and each block stores its first
+ * identifier in full, followed by the gaps to the next ones, as variable-length integers. Dense identifiers make for
+ * small gaps, so most edges take a byte or two, instead of an object reference and a hash table node. Looking up an
+ * identifier is a binary search on the first identifiers of the blocks, followed by decoding a single block.
+ * <p>
+ * Rebuilding the compressed blocks on every change would make following a popular user linear in its number of
+ * followers, so the recent changes are kept aside, in two small sorted arrays of added and removed identifiers. They are
+ * merged into the blocks once they reach an eighth of the set (within bounds), which makes the cost of a change
+ * constant on average. The compressed blocks thus hold the cold, settled part of the set, and the arrays the hot one.
+ * <p>
+ * Changes are serialized on the set, while reads are lock-free: every change publishes a new immutable snapshot
+ * through a volatile field, so a reader sees a consistent set, as it was at some point, and never blocks.
+ * <p>
+ * Only the {@link User} changes the sets, so that both sides of an edge change together.
+ */
+public class AdjacencySet {
+    private static final int BLOCK_SIZE = 64;
+    private static final int MIN_PENDING = 32;
+    private static final int MAX_PENDING = 4096;
+    private static final int[] NONE = new int[0];
+
+    private volatile Snapshot snapshot = new Snapshot(Blocks.EMPTY, NONE, NONE);
+
+    public boolean contains(int id) {
+        return snapshot.contains(id);
+    }
+
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * @return the identifiers, in ascending order
+     */
+    public int[] toArray() {
+        Snapshot current = snapshot;
+        int[] ids = new int[current.size];
+        PrimitiveIterator.OfInt iterator = current.iterator(-1);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = iterator.nextInt();
+        }
+        return ids;
+    }
+
+    /**
+     * Lazily iterates over the identifiers, in ascending order, without decoding the whole set.
+     *
+     * @param after the iteration starts with the first identifier strictly greater than this one. -1 to start from the first identifier
+     * @return the identifiers, as they were when the iteration started
+     */
+    public PrimitiveIterator.OfInt iterator(int after) {
+        return snapshot.iterator(after);
+    }
+
+    /**
+     * @return true if the identifier was not in the set
+     */
+    synchronized boolean add(int id) {
+        Snapshot current = snapshot;
+        int removedAt = Arrays.binarySearch(current.removed, id);
+        if (removedAt >= 0) {
+            snapshot = new Snapshot(current.base, current.added, without(current.removed, removedAt));
+            return true;
+        }
+        int addedAt = Arrays.binarySearch(current.added, id);
+        if (addedAt >= 0 || current.base.contains(id)) {
+            return false;
+        }
+        snapshot = compact(new Snapshot(current.base, with(current.added, -addedAt - 1, id), current.removed));
+        return true;
+    }
+
+    /**
+     * @return true if the identifier was in the set
+     */
+    synchronized boolean remove(int id) {
+        Snapshot current = snapshot;
+        int addedAt = Arrays.binarySearch(current.added, id);
+        if (addedAt >= 0) {
+            snapshot = new Snapshot(current.base, without(current.added, addedAt), current.removed);
+            return true;
+        }
+        int removedAt = Arrays.binarySearch(current.removed, id);
+        if (removedAt >= 0 || !current.base.contains(id)) {
+            return false;
+        }
+        snapshot = compact(new Snapshot(current.base, current.added, with(current.removed, -removedAt - 1, id)));
+        return true;
+    }
+
+    /**
+     * Merges the pending changes into the compressed blocks, once there are enough of them
+     */
+    private static Snapshot compact(Snapshot snapshot) {
+        int pending = snapshot.added.length + snapshot.removed.length;
+        if (pending <= Math.max(MIN_PENDING, Math.min(MAX_PENDING, snapshot.base.size >>> 3))) {
+            return snapshot;
+        }
+        int[] ids = new int[snapshot.size];
+        PrimitiveIterator.OfInt iterator = snapshot.iterator(-1);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = iterator.nextInt();
+        }
+        return new Snapshot(Blocks.encode(ids), NONE, NONE);
+    }
+
+    private static int[] with(int[] ids, int index, int id) {
+        int[] copy = new int[ids.length + 1];
+        System.arraycopy(ids, 0, copy, 0, index);
+        copy[index] = id;
+        System.arraycopy(ids, index, copy, index + 1, ids.length - index);
+        return copy;
+    }
+
+    private static int[] without(int[] ids, int index) {
+        int[] copy = new int[ids.length - 1];
+        System.arraycopy(ids, 0, copy, 0, index);
+        System.arraycopy(ids, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    /**
+     * The compressed identifiers, and the changes not merged into them yet. The removed identifiers are all in the
+     * blocks, and the added ones are not
+     */
+    private static final class Snapshot {
+        private final Blocks base;
+        private final int[] added;
+        private final int[] removed;
+        private final int size;
+
+        private Snapshot(Blocks base, int[] added, int[] removed) {
+            this.base = base;
+            this.added = added;
+            this.removed = removed;
+            this.size = base.size + added.length - removed.length;
+        }
+
+        private boolean contains(int id) {
+            if (Arrays.binarySearch(added, id) >= 0) {
+                return true;
+            }
+            return base.contains(id) && Arrays.binarySearch(removed, id) < 0;
+        }
+
+        /**
+         * Merges the blocks, minus the removed identifiers, with the added ones
+         */
+        private PrimitiveIterator.OfInt iterator(int after) {
+            Blocks.Cursor blocks = base.cursor(after);
+            int addedStart = Arrays.binarySearch(added, after);
+            int removedStart = Arrays.binarySearch(removed, after);
+            return new PrimitiveIterator.OfInt() {
+                private int addedIndex = addedStart >= 0 ? addedStart + 1 : -addedStart - 1;
+                private int removedIndex = removedStart >= 0 ? removedStart + 1 : -removedStart - 1;
+
+                @Override
+                public boolean hasNext() {
+                    skipRemoved();
+                    return blocks.hasNext() || addedIndex < added.length;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    if (addedIndex < added.length && (!blocks.hasNext() || added[addedIndex] < blocks.peek())) {
+                        return added[addedIndex++];
+                    }
+                    return blocks.next();
+                }
+
+                private void skipRemoved() {
+                    while (blocks.hasNext() && removedIndex < removed.length) {
+                        int next = blocks.peek();
+                        if (removed[removedIndex] < next) {
+                            removedIndex++;
+                        } else if (removed[removedIndex] == next) {
+                            removedIndex++;
+                            blocks.next();
+                        } else {
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Sorted identifiers, compressed in blocks: the first identifier of each block in full, then the gaps between the
+     * consecutive identifiers of the block, as variable-length integers (7 bits per byte, the high bit set on all but
+     * the last byte)
+     */
+    private static final class Blocks {
+        private static final Blocks EMPTY = new Blocks(0, NONE, NONE, new byte[0]);
+
+        private final int size;
+        private final int[] firsts; //The first identifier of each block
+        private final int[] offsets; //The position of each block's gaps in the bytes
+        private final byte[] gaps;
+
+        private Blocks(int size, int[] firsts, int[] offsets, byte[] gaps) {
+            this.size = size;
+            this.firsts = firsts;
+            this.offsets = offsets;
+            this.gaps = gaps;
+        }
+
+        private static Blocks encode(int[] ids) {
+            int blockCount = (ids.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int[] firsts = new int[blockCount];
+            int[] offsets = new int[blockCount];
+            byte[] gaps = new byte[ids.length * 5];
+            int position = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i % BLOCK_SIZE == 0) {
+                    firsts[i / BLOCK_SIZE] = ids[i];
+                    offsets[i / BLOCK_SIZE] = position;
+                    continue;
+                }
+                int gap = ids[i] - ids[i - 1];
+                while (gap >= 0x80) {
+                    gaps[position++] = (byte) (gap & 0x7F | 0x80);
+                    gap >>>= 7;
+                }
+                gaps[position++] = (byte) gap;
+            }
+            return new Blocks(ids.length, firsts, offsets, Arrays.copyOf(gaps, position));
+        }
+
+        private boolean contains(int id) {
+            int block = blockOf(id);
+            if (block < 0) {
+                return false;
+            }
+            Cursor cursor = new Cursor(block);
+            while (cursor.hasNext() && cursor.peek() < id) {
+                cursor.next();
+            }
+            return cursor.hasNext() && cursor.peek() == id;
+        }
+
+        /**
+         * @return a cursor on the first identifier strictly greater than the given one
+         */
+        private Cursor cursor(int after) {
+            Cursor cursor = new Cursor(Math.max(0, blockOf(after)));
+            while (cursor.hasNext() && cursor.peek() <= after) {
+                cursor.next();
+            }
+            return cursor;
+        }
+
+        /**
+         * @return the last block starting with an identifier lower than, or equal to, the given one, or -1 if there is none
+         */
+        private int blockOf(int id) {
+            int low = 0;
+            int high = firsts.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firsts[middle] <= id) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        /**
+         * Decodes the identifiers one at a time, from the start of a block
+         */
+        private final class Cursor {
+            private int index; //Of the next identifier
+            private int position; //Of the next gap
+            private int next;
+
+            private Cursor(int block) {
+                this.index = block * BLOCK_SIZE;
+                if (index < size) {
+                    this.position = offsets[block];
+                    this.next = firsts[block];
+                }
+            }
+
+            private boolean hasNext() {
+                return index < size;
+            }
+
+            private int peek() {
+                return next;
+            }
+
+            private int next() {
+                int current = next;
+                index++;
+                if (index < size) {
+                    if (index % BLOCK_SIZE == 0) {
+                        next = firsts[index / BLOCK_SIZE];
+                        position = offsets[index / BLOCK_SIZE];
+                    } else {
+                        int gap = 0;
+                        for (int shift = 0; ; shift += 7) {
+                            byte b = gaps[position++];
+                            gap |= (b & 0x7F) << shift;
+                            if (b >= 0) {
+                                break;
+                            }
+                        }
+                        next += gap;
+                    }
+                }
+                return current;
+            }
+        }
+    }
+}
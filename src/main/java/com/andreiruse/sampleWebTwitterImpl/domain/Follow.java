@@ -0,0 +1,22 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+/**
+ * POJO representing an edge of the follow graph: the follower follows the followed user.
+ */
+public class Follow {
+    private final User follower;
+    private final User followed;
+
+    public Follow(User follower, User followed) {
+        this.follower = follower;
+        this.followed = followed;
+    }
+
+    public User getFollower() {
+        return follower;
+    }
+
+    public User getFollowed() {
+        return followed;
+    }
+}
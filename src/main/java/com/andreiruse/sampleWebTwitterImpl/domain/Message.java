@@ -1,26 +1,65 @@
 package com.andreiruse.sampleWebTwitterImpl.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 /**
  * POJO representing a message posted by a user. Includes the author of the message, the message content, and the creation time.
  * <p>
- * As the author field does not get serialized to JSON, it also includes a username field - this is extracted from the author's data.
+ * As the author field does not get serialized to JSON, it also exposes a username property - this is extracted from the author's data.
+ * <p>
+ * Every message has a unique, time-ordered identifier, generated by a {@link MessageIdGenerator}. The creation time is
+ * encoded in the identifier, and messages are ordered (and paginated) by comparing their identifiers. The identifier of
+ * a new message is only generated by its author's wall, under the lock of the wall (see {@link MessageLog#append(Message)}):
+ * the messages of an author are thus appended in identifier order, even when they are posted concurrently. Until then,
+ * the message has no identifier nor creation time, and is only equal to itself.
+ * <p>
+ * Messages are not kept as objects once posted: the walls store them in a compact form (see {@link MessageLog}), and
+ * hand out short-lived views of them when they are read. Two views of the same message are equal, as messages are
+ * compared on their (unique) identifier only.
  */
+@JsonPropertyOrder({"username", "content", "createdAt", "id"})
 public class Message {
+    /**
+     * The generator used for the messages created by this server. The node id can be set with the message.node-id system property,
+     * when several servers create messages that end up in the same data store.
+     */
+    private static final MessageIdGenerator ID_GENERATOR = new MessageIdGenerator(Integer.getInteger("message.node-id", 0));
+    private static final long UNASSIGNED_ID = 0;
+
     @JsonIgnore
     private final User author; //Serializing this in JSON will result in a cycle between
-    private final String username;
     private final String content;
-    private final LocalDateTime createdAt;
+    private volatile long id;
 
     public Message(User author, String content) {
+        this(author, content, UNASSIGNED_ID);
+    }
+
+    /**
+     * Re-creates a message with a known identifier, e.g. when restoring it from storage.
+     */
+    public Message(long id, User author, String content) {
+        this(author, content, id);
+        ID_GENERATOR.advancePast(id);
+    }
+
+    private Message(User author, String content, long id) {
         this.author = author;
-        this.username = author.getUsername();
         this.content = content;
-        this.createdAt = LocalDateTime.now();
+        this.id = id;
+    }
+
+    /**
+     * Creates a view of a message read from a wall. The identifier was generated when the message was posted, so the
+     * generator is left alone.
+     */
+    static Message view(long id, User author, String content) {
+        return new Message(author, content, id);
     }
 
     /**
@@ -37,14 +76,54 @@ public class Message {
     }
 
     public String getUsername() {
-        return username;
+        return author.getUsername();
     }
 
     public String getContent() {
         return content;
     }
 
+    /**
+     * @return the identifier of the message, or 0 for a new message which has not been appended to its author's wall yet
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the creation time, or null for a new message which has not been appended to its author's wall yet
+     */
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        long current = id;
+        if (current == UNASSIGNED_ID) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(MessageIdGenerator.timestampMillis(current)), ZoneId.systemDefault());
+    }
+
+    /**
+     * Generates the identifier of a new message. Only called by the author's wall, while holding its lock.
+     */
+    void assignId() {
+        if (id == UNASSIGNED_ID) {
+            id = ID_GENERATOR.nextId();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Message message = (Message) o;
+        return id != UNASSIGNED_ID && id == message.id;
+    }
+
+    /**
+     * The hash code changes when a new message gets its identifier, so a new message should not be kept in a hash-based
+     * collection until it has been appended.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 }
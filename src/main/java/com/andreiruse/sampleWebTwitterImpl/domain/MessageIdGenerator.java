@@ -0,0 +1,109 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique, time-ordered 64-bit message identifiers, in the style of Twitter's Snowflake.
+ * <p>
+ * Each identifier is made of (from the most significant bit):
+ * * 41 bits: milliseconds since {@link #EPOCH_MILLIS}, which lasts for about 69 years
+ * * 10 bits: the node id, so that several servers can generate identifiers without coordination
+ * * 12 bits: a sequence number, for the identifiers generated within the same millisecond
+ * <p>
+ * The identifiers generated by one generator are strictly increasing, even if the clock goes backwards, or more than
+ * 4096 identifiers are requested within a millisecond: in both cases, the generator keeps counting from the last
+ * identifier, slightly ahead of the clock. Comparing identifiers therefore gives a total order, consistent with the
+ * creation time, and identifiers can be used as pagination cursors.
+ * <p>
+ * The generator is lock-free, and can be shared between threads.
+ */
+public class MessageIdGenerator {
+    /**
+     * 2018-01-01T00:00:00Z
+     */
+    public static final long EPOCH_MILLIS = 1514764800000L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long NODE_MASK = ((1L << NODE_BITS) - 1) << SEQUENCE_BITS;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private final Clock clock;
+    private final long nodeBits;
+    private final AtomicLong lastId = new AtomicLong();
+
+    public MessageIdGenerator(int nodeId) {
+        this(nodeId, Clock.systemUTC());
+    }
+
+    public MessageIdGenerator(int nodeId, Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("The node id has to be between 0 and " + MAX_NODE_ID + ", but was " + nodeId);
+        }
+        this.clock = clock;
+        this.nodeBits = ((long) nodeId) << SEQUENCE_BITS;
+    }
+
+    /**
+     * @return a new identifier, greater than every identifier previously returned by this generator
+     */
+    public long nextId() {
+        while (true) {
+            long last = lastId.get();
+            long lastMillis = last >>> TIMESTAMP_SHIFT;
+            long lastSequence = last & SEQUENCE_MASK;
+            long nowMillis = clock.millis() - EPOCH_MILLIS;
+
+            long next;
+            if (nowMillis > lastMillis) {
+                next = compose(nowMillis, 0);
+            } else if (lastSequence < SEQUENCE_MASK) {
+                next = compose(lastMillis, lastSequence + 1);
+            } else {
+                next = compose(lastMillis + 1, 0);
+            }
+            if (lastId.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the identifiers generated from now on are greater than the given one. This is used when restoring
+     * messages created by a previous run, so that the new messages are still ordered after them.
+     * <p>
+     * The identifier may have been generated by another node: only its timestamp and sequence are taken over, with the
+     * node id of this generator. If the other node id is greater, the next identifier moves on to the next millisecond,
+     * as every identifier of this generator within that millisecond would be lower.
+     *
+     * @param id an identifier generated previously, by any node
+     */
+    public void advancePast(long id) {
+        long millis = id >>> TIMESTAMP_SHIFT;
+        long sequence = (id & NODE_MASK) > nodeBits ? SEQUENCE_MASK : id & SEQUENCE_MASK;
+        lastId.accumulateAndGet(compose(millis, sequence), Math::max);
+    }
+
+    /**
+     * @param id a message identifier
+     * @return the creation time encoded in the identifier, in milliseconds since the Unix epoch
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS;
+    }
+
+    /**
+     * @param id a message identifier
+     * @return the id of the node which generated the identifier
+     */
+    public static int nodeId(long id) {
+        return (int) ((id & NODE_MASK) >>> SEQUENCE_BITS);
+    }
+
+    private long compose(long millis, long sequence) {
+        return (millis << TIMESTAMP_SHIFT) | nodeBits | sequence;
+    }
+}
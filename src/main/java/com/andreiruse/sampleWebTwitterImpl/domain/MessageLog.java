@@ -0,0 +1,190 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An append-only log of messages, used to store a user's wall.
+ * <p>
+ * The messages are not stored as objects, but in a compact, columnar form: their identifiers in an array of longs,
+ * and the addresses of their contents in a {@link MessageSlab} (owned by the owner's {@link UserRegistry}, and shared
+ * by the logs of all its users, where they are encoded in UTF-8)
+ * in another one. The author is the owner of the log, and the creation time is encoded in the identifier, so neither
+ * is stored. A message thus takes 16 bytes in the log, plus its UTF-8 length in the slab, instead of a Message object,
+ * a String and its array. The arrays of the log double in size when they get full, so appending is constant time on
+ * average.
+ * <p>
+ * Reading a message creates a lightweight {@link Message} view of it, which only lives as long as the request reading
+ * it. The identifiers can also be read without creating the views (see {@link #idAt(int)}), e.g. to search the log.
+ * <p>
+ * Appends are serialized by a lock of the log (a {@link ReentrantLock}, which does not pin the carrier of a virtual
+ * thread waiting for it), while reads are lock-free: the arrays are replaced (never modified in place) when
+ * they grow, and published through a volatile field, and the number of messages is published through another volatile
+ * field, after the message has been written. A reader therefore only ever sees fully appended messages, and a snapshot
+ * of the log is simply its length at the time it was read.
+ * <p>
+ * Messages are appended in the order they are posted, and the identifier of a new message is generated under the lock
+ * of the log, so the log is in chronological (identifier) order, and reading it backwards gives the reverse
+ * chronological order, without any sorting.
+ * <p>
+ * The log is exposed as a read-only {@link java.util.List}; the mutating list operations are not supported.
+ */
+public class MessageLog extends AbstractList<Message> implements RandomAccess {
+    /**
+     * The contents of the messages of the users which are not stored in any data store, e.g. in tests. Messages are
+     * never deleted, so this slab lives as long as the process; users only post once stored, in the server.
+     */
+    private static final MessageSlab DETACHED_SLAB = new MessageSlab();
+    private static final int INITIAL_CAPACITY = 2;
+
+    private final User owner;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile Storage storage = new Storage(new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY]);
+    private volatile int length;
+    private volatile MessageSlab slab; //Bound on the first append, and never changed afterwards
+
+    /**
+     * @param owner the author of every message in the log
+     */
+    public MessageLog(User owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Appends a message at the end of the log, and publishes it to the readers. The identifier of a new message is
+     * generated here, while holding the lock of the log, unless it was already generated by {@link #assignId(Message)}.
+     *
+     * @param message the message to append, posted by the owner of the log
+     */
+    public void append(Message message) {
+        long address = slab().append(message.getContent());
+        appendLock.lock();
+        try {
+            message.assignId();
+            long id = message.getId();
+            int index = length;
+            Storage current = storage;
+            if (index == current.ids.length) {
+                current = new Storage(Arrays.copyOf(current.ids, 2 * index), Arrays.copyOf(current.addresses, 2 * index));
+                storage = current;
+            }
+            current.ids[index] = id;
+            current.addresses[index] = address;
+            length = index + 1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return the lock serializing the appends. It is reentrant, so a caller may also hold it around an append, e.g. to
+     * log the identifier of a new message before appending it, in the same order (see {@link #assignId(Message)})
+     */
+    public ReentrantLock getAppendLock() {
+        return appendLock;
+    }
+
+    /**
+     * Generates the identifier of a new message before it is appended, e.g. to write it to a journal first. The caller
+     * has to hold the {@link #getAppendLock() lock} of the log from this call until the message is appended, so that no
+     * other message of the owner gets a greater identifier, and is appended before it.
+     *
+     * @param message a message posted by the owner of the log
+     * @return the identifier of the message
+     * @throws IllegalStateException if the caller does not hold the lock of the log
+     */
+    public long assignId(Message message) {
+        if (!appendLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("The identifier of a message has to be generated while holding the lock of its wall");
+        }
+        message.assignId();
+        return message.getId();
+    }
+
+    /**
+     * @return the slab of the owner's registry, or the detached slab if the owner was not stored when it first posted
+     */
+    private MessageSlab slab() {
+        MessageSlab current = slab;
+        if (current != null) {
+            return current;
+        }
+        appendLock.lock();
+        try {
+            if (slab == null) {
+                UserRegistry registry = owner.getRegistry();
+                slab = registry != null ? registry.getSlab() : DETACHED_SLAB;
+            }
+            return slab;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public Message get(int index) {
+        checkIndex(index);
+        Storage current = storage;
+        return Message.view(current.ids[index], owner, slab.get(current.addresses[index]));
+    }
+
+    /**
+     * @param index the position of the message in the log
+     * @return the identifier of the message, without creating a view of it
+     */
+    public long idAt(int index) {
+        checkIndex(index);
+        return storage.ids[index];
+    }
+
+    /**
+     * Looks up a message by identifier, with a binary search, as the log is in identifier order.
+     *
+     * @param id the identifier of the message
+     * @return a view of the message, or null if it is not in the log
+     */
+    public Message find(long id) {
+        int size = length;
+        long[] ids = storage.ids;
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ids[middle] < id) {
+                low = middle + 1;
+            } else if (ids[middle] > id) {
+                high = middle - 1;
+            } else {
+                return get(middle);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+        }
+    }
+
+    /**
+     * The arrays holding the messages. They are copied into a new instance when they grow, so that the readers of the
+     * previous instance can keep reading it.
+     */
+    private static final class Storage {
+        private final long[] ids;
+        private final long[] addresses; //Of the contents, in the slab
+
+        private Storage(long[] ids, long[] addresses) {
+            this.ids = ids;
+            this.addresses = addresses;
+        }
+    }
+}
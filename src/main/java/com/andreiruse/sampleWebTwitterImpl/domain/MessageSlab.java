@@ -0,0 +1,116 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only store of message contents, encoded in UTF-8, and packed one after the other in large byte chunks.
+ * <p>
+ * Each content is prefixed by its length, as a variable-length integer (one byte for up to 127 bytes of content, two
+ * bytes up to 16383), and is then referred to by its address in the slab: a single long, rather than a String object
+ * and its array. The chunks are allocated as the slab fills up, and never moved, so appending never copies the
+ * existing contents, and at most the end of a chunk is left unused.
+ * <p>
+ * Space is reserved by bumping a shared position, with a compare-and-set, so writers never block each other; a
+ * content which does not fit at the end of a chunk starts at the next one. The table of chunks is replaced (never
+ * modified in place) when a chunk is added, and published through a volatile field.
+ * <p>
+ * A content can only be read once its writer has published its address, e.g. through a volatile field, which makes
+ * the content visible along with it.
+ */
+public class MessageSlab {
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long OFFSET_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicLong position = new AtomicLong();
+    private volatile byte[][] chunks = new byte[0][];
+
+    /**
+     * Stores a content.
+     *
+     * @param content the content to store
+     * @return the address of the content in the slab
+     * @throws IllegalArgumentException if the content does not fit in a chunk
+     */
+    public long append(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        int headerLength = bytes.length < 0x80 ? 1 : bytes.length < 0x4000 ? 2 : 3;
+        int recordLength = headerLength + bytes.length;
+        if (recordLength > CHUNK_SIZE) {
+            throw new IllegalArgumentException("A content of " + bytes.length + " bytes is too long to be stored");
+        }
+
+        long address = reserve(recordLength);
+        byte[] chunk = chunk((int) (address >>> CHUNK_BITS));
+        int offset = (int) (address & OFFSET_MASK);
+        for (int remaining = bytes.length; ; remaining >>>= 7) {
+            if (remaining < 0x80) {
+                chunk[offset++] = (byte) remaining;
+                break;
+            }
+            chunk[offset++] = (byte) (remaining & 0x7F | 0x80);
+        }
+        System.arraycopy(bytes, 0, chunk, offset, bytes.length);
+        return address;
+    }
+
+    /**
+     * @param address the address returned when the content was stored
+     * @return the content
+     */
+    public String get(long address) {
+        byte[] chunk = chunks[(int) (address >>> CHUNK_BITS)];
+        int offset = (int) (address & OFFSET_MASK);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte next = chunk[offset++];
+            length |= (next & 0x7F) << shift;
+            if (next >= 0) {
+                break;
+            }
+        }
+        return new String(chunk, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes allocated to the slab
+     */
+    public long capacity() {
+        return (long) chunks.length * CHUNK_SIZE;
+    }
+
+    private long reserve(int length) {
+        while (true) {
+            long current = position.get();
+            long start = current;
+            if ((start & OFFSET_MASK) + length > CHUNK_SIZE) {
+                start = (start | OFFSET_MASK) + 1;
+            }
+            if (position.compareAndSet(current, start + length)) {
+                return start;
+            }
+        }
+    }
+
+    private byte[] chunk(int index) {
+        byte[][] current = chunks;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, 2 * current.length));
+            } else if (current[index] != null) {
+                return current[index];
+            } else {
+                current = current.clone();
+            }
+            current[index] = new byte[CHUNK_SIZE];
+            chunks = current;
+            return current[index];
+        }
+    }
+}
@@ -1,43 +1,241 @@
 package com.andreiruse.sampleWebTwitterImpl.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * POJO representing a user. Stores the username, the list of messages and the other users that the current user is following.
  * <p>
+ * It also stores the reverse edges of the follow graph (the users following the current user), so that the followers
+ * can be listed page by page, and a new message pushed to them, without scanning every user.
+ * <p>
+ * Both sides of the follow graph refer to the users by the dense identifiers assigned by the {@link UserRegistry} of
+ * the data store they are stored in, and are kept in compressed {@link AdjacencySet}s, ordered by identifier. A user
+ * therefore has to be stored before following, or being followed by, another user of the same data store. The graph
+ * traversals (timeline fan-in, fan-out to the followers, follower listings) go through the identifiers, and only
+ * resolve the users they need.
+ * <p>
  * When comparing two users, only the username is taken into consideration.
+ * <p>
+ * <b>Concurrency model.</b> Users are shared between all the request threads, so every structure they hold is safe to
+ * read while it is being modified, and no reader ever takes a lock:
+ * <ul>
+ * <li>the wall is a {@link MessageLog}: appends are serialized on the author's own log (a lock per user, so posts by
+ * different users never contend), while reads see a consistent prefix of it, without locking;</li>
+ * <li>the follow edges live in {@link AdjacencySet}s, which publish an immutable snapshot on every change, so they can
+ * be read and iterated while being modified, without {@link java.util.ConcurrentModificationException}s. The
+ * iterators reflect the edges as they were when the iteration started;</li>
+ * <li>{@link #follow(User)} and {@link #unfollow(User)} are serialized on the follower's {@link #getEdgeLock() edge lock},
+ * as the follower owns both operations on its edges, so that the forward and the reverse edge always change together,
+ * and are never counted twice. The set of followers of the followed user is only locked while it changes, and never
+ * while taking another lock, so there is no lock ordering to respect, and no deadlock.</li>
+ * </ul>
+ * The locks are {@link ReentrantLock}s rather than monitors, so that a virtual thread waiting for one, or holding one
+ * while it blocks, does not pin its carrier thread.
+ * The identifier of a new message is generated by the append, under the lock of the wall, so two messages posted at
+ * the same instant by the same author, from two threads, are still appended in the order of their identifiers.
  */
 public class User {
     private final String username;
-    private final List<Message> wall;
-    private final List<User> following; //Other users that the current user is following
+    private final MessageLog wall; //Messages posted by the current user, in chronological order
+    @JsonIgnore
+    private final AdjacencySet following; //Identifiers of the other users that the current user is following
+    @JsonIgnore
+    private final AdjacencySet followers; //Identifiers of the other users following the current user
+    @JsonIgnore
+    private volatile UserRegistry registry; //Null until the user is stored
+    @JsonIgnore
+    private volatile int id = -1;
+    @JsonIgnore
+    private final ReentrantLock edgeLock = new ReentrantLock();
 
     public User(String username) {
         this.username = username;
-        this.wall = new ArrayList<>();
-        this.following = new ArrayList<>();
+        this.wall = new MessageLog(this);
+        this.following = new AdjacencySet();
+        this.followers = new AdjacencySet();
     }
 
     public String getUsername() {
         return username;
     }
 
-    public List<Message> getWall() {
+    /**
+     * @return the messages posted by the current user, as a read-only list in chronological order
+     */
+    public MessageLog getWall() {
         return wall;
     }
 
     public void addMessage(Message message) {
-        this.wall.add(message);
+        this.wall.append(message);
     }
 
+    /**
+     * @return the users that the current user is following, in identifier order. They are resolved on every call: the
+     * graph traversals should go through {@link #getFollowingIds()} instead
+     */
     public List<User> getFollowing() {
+        return resolve(following);
+    }
+
+    @JsonIgnore
+    public AdjacencySet getFollowingIds() {
         return following;
     }
 
-    public void follow(User user) {
-        this.following.add(user);
+    public boolean isFollowing(User user) {
+        return user.registry == registry && user.registry != null && following.contains(user.id);
+    }
+
+    @JsonIgnore
+    public int getFollowingCount() {
+        return following.size();
+    }
+
+    /**
+     * @return the users following the current user, in identifier order. They are resolved on every call: the graph
+     * traversals should go through {@link #getFollowerIds()} instead
+     */
+    @JsonIgnore
+    public List<User> getFollowers() {
+        return resolve(followers);
+    }
+
+    /**
+     * Lazily iterates over the users following the current user, in identifier order, resolving them one at a time.
+     *
+     * @param after the iteration starts with the first follower with an identifier strictly greater than this one. -1 to start from the first follower
+     * @return the followers
+     */
+    public Iterator<User> followersAfter(int after) {
+        PrimitiveIterator.OfInt ids = followers.iterator(after);
+        return new Iterator<User>() {
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public User next() {
+                return registry.get(ids.nextInt());
+            }
+        };
+    }
+
+    @JsonIgnore
+    public AdjacencySet getFollowerIds() {
+        return followers;
+    }
+
+    @JsonIgnore
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * @return the identifier assigned when the user was stored, or -1 if the user has not been stored
+     */
+    @JsonIgnore
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the registry resolving the identifiers of the follow graph, or null if the user has not been stored
+     */
+    @JsonIgnore
+    public UserRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return the lock serializing the changes to the edges of the current user, held by {@link #follow(User)} and
+     * {@link #unfollow(User)}. It is reentrant, so a caller may also hold it around them, to check and change the edges atomically
+     */
+    @JsonIgnore
+    public ReentrantLock getEdgeLock() {
+        return edgeLock;
+    }
+
+    /**
+     * Records that the current user follows the given user. Both the forward edge (on the current user) and the
+     * reverse edge (on the followed user) are recorded in the same call. Following a user twice has no effect.
+     *
+     * @param user the user to follow
+     * @return true if the current user was not already following the given user
+     * @throws IllegalStateException if the users have not been stored in the same data store
+     */
+    public boolean follow(User user) {
+        edgeLock.lock();
+        try {
+            checkSameRegistry(user);
+            if (!this.following.add(user.id)) {
+                return false;
+            }
+            user.followers.add(this.id);
+            return true;
+        } finally {
+            edgeLock.unlock();
+        }
+    }
+
+    /**
+     * Records that the current user stops following the given user, removing both the forward and the reverse edge.
+     *
+     * @param user the user to unfollow
+     * @return true if the current user was following the given user
+     * @throws IllegalStateException if the users have not been stored in the same data store
+     */
+    public boolean unfollow(User user) {
+        edgeLock.lock();
+        try {
+            checkSameRegistry(user);
+            if (!this.following.remove(user.id)) {
+                return false;
+            }
+            user.followers.remove(this.id);
+            return true;
+        } finally {
+            edgeLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the registry, when the user is stored
+     */
+    void registered(UserRegistry registry, int id) {
+        edgeLock.lock();
+        try {
+            if (this.registry != null) {
+                throw new IllegalStateException("The user " + username + " has already been stored");
+            }
+            this.id = id;
+            this.registry = registry;
+        } finally {
+            edgeLock.unlock();
+        }
+    }
+
+    private void checkSameRegistry(User user) {
+        if (registry == null || user.registry != registry) {
+            throw new IllegalStateException("The users " + username + " and " + user.username + " have to be stored in the same data store to follow each other");
+        }
+    }
+
+    private List<User> resolve(AdjacencySet ids) {
+        List<User> users = new ArrayList<>(ids.size());
+        PrimitiveIterator.OfInt iterator = ids.iterator(-1);
+        while (iterator.hasNext()) {
+            users.add(registry.get(iterator.nextInt()));
+        }
+        return users;
     }
 
     @Override
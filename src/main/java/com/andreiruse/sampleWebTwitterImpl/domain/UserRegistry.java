@@ -0,0 +1,65 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer identifiers to the users of a data store, as they are stored: 0 for the first user, 1 for the
+ * second one, and so on. The follow graph refers to the users by these identifiers (see {@link AdjacencySet}), and
+ * resolves them through the registry, which is a plain array lookup.
+ * <p>
+ * Registrations are serialized on the registry, while lookups are lock-free: the array is replaced (never modified in
+ * place) when it grows, and published through a volatile field. A user is registered before it can be followed, so
+ * every identifier found in the graph can be resolved.
+ * <p>
+ * The registry also owns the {@link MessageSlab} holding the contents of the messages posted by its users, so that
+ * the contents are freed along with the data store(s) sharing the registry.
+ */
+public class UserRegistry {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile User[] users = new User[INITIAL_CAPACITY];
+    private volatile int size;
+    private final MessageSlab slab = new MessageSlab();
+
+    /**
+     * Assigns the next identifier to a user.
+     *
+     * @param user the user to register
+     * @return the identifier of the user
+     * @throws IllegalStateException if the user has already been registered
+     */
+    public synchronized int register(User user) {
+        int id = size;
+        user.registered(this, id);
+        User[] current = users;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, 2 * id);
+        }
+        current[id] = user;
+        users = current;
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * @param id the identifier of a registered user
+     * @return the user
+     */
+    public User get(int id) {
+        return users[id];
+    }
+
+    /**
+     * @return the number of registered users
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slab holding the contents of the messages posted by the registered users
+     */
+    public MessageSlab getSlab() {
+        return slab;
+    }
+}
@@ -0,0 +1,175 @@
+package com.andreiruse.sampleWebTwitterImpl.ingest;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.metrics.Histogram;
+import com.andreiruse.sampleWebTwitterImpl.metrics.Metrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies the posted messages to a {@link DataStore} in the background, in batches, so that the request threads only
+ * validate and enqueue them.
+ * <p>
+ * The messages are spread across several bounded queues, each drained by a single consumer thread, which takes every
+ * message waiting in its queue (up to the batch size) and applies them at once, with
+ * {@link DataStore#addMessages(List)}. Under load the batches grow, and the costs paid per call downstream (e.g. forcing
+ * the journal to disk) are shared by more messages. The queue of a message is chosen from its author, so the messages of
+ * an author are applied in the order they were submitted.
+ * <p>
+ * When the queue of a message is full, the message is rejected rather than waited for, so that the clients are told to
+ * back off, instead of piling up on the server's threads.
+ */
+public class PostPipeline implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PostPipeline.class.getName());
+    /**
+     * How long an idle consumer waits for a message, before checking whether the pipeline is closed
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private final DataStore dataStore;
+    private final int batchSize;
+    private final List<BlockingQueue<Post>> queues = new ArrayList<>();
+    private final List<Thread> consumers = new ArrayList<>();
+    private final Histogram batchSizes;
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param dataStore     the data store the messages are applied to
+     * @param metrics       the registry of the metrics, recording the batch sizes
+     * @param queueCapacity the number of messages waiting to be applied, above which new ones are rejected
+     * @param batchSize     the maximum number of messages applied at once
+     * @param consumerCount the number of consumer threads, each with its own queue
+     */
+    public PostPipeline(DataStore dataStore, Metrics metrics, int queueCapacity, int batchSize, int consumerCount) {
+        if (queueCapacity < consumerCount || batchSize <= 0 || consumerCount <= 0) {
+            throw new IllegalArgumentException("The consumer count and batch size have to be positive, and the queue capacity at least the consumer count, but were "
+                    + consumerCount + ", " + batchSize + " and " + queueCapacity);
+        }
+        this.dataStore = dataStore;
+        this.batchSize = batchSize;
+        this.batchSizes = metrics.distribution("post_batch_size_messages", "Number of posted messages applied to the data store at once");
+        metrics.gauge("post_queue_messages", "Posted messages waiting to be applied to the data store", "gauge", this::getQueuedCount);
+        metrics.gauge("post_rejected_total", "Posted messages rejected as the queue was full", "counter", this::getRejectedCount);
+        for (int i = 0; i < consumerCount; i++) {
+            BlockingQueue<Post> queue = new ArrayBlockingQueue<>(queueCapacity / consumerCount);
+            Thread consumer = new Thread(() -> consume(queue), "post-pipeline-" + i);
+            consumer.setDaemon(true);
+            queues.add(queue);
+            consumers.add(consumer);
+        }
+        consumers.forEach(Thread::start);
+    }
+
+    /**
+     * Enqueues a message, without waiting.
+     *
+     * @param message the validated message
+     * @return completed once the message has been applied, or exceptionally if the data store failed to apply it
+     * @throws RejectedExecutionException if the queue of the message is full, or the pipeline is closed
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        if (closed) {
+            throw new RejectedExecutionException("The post pipeline is closed");
+        }
+        Post post = new Post(message);
+        int queue = Math.floorMod(message.getAuthor().getUsername().hashCode(), queues.size());
+        if (!queues.get(queue).offer(post)) {
+            rejected.increment();
+            throw new RejectedExecutionException("The post queue is full");
+        }
+        return post.applied;
+    }
+
+    public long getQueuedCount() {
+        return queues.stream().mapToLong(BlockingQueue::size).sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops accepting messages, and waits for the consumers to apply the ones already queued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread consumer : consumers) {
+            try {
+                consumer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        //Fails the messages submitted while closing, after their consumer stopped
+        List<Post> leftovers = new ArrayList<>();
+        queues.forEach(queue -> queue.drainTo(leftovers));
+        for (Post post : leftovers) {
+            post.applied.completeExceptionally(new RejectedExecutionException("The post pipeline is closed"));
+        }
+    }
+
+    private void consume(BlockingQueue<Post> queue) {
+        List<Post> batch = new ArrayList<>(batchSize);
+        while (true) {
+            Post first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Post> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Post post : batch) {
+            messages.add(post.message);
+        }
+        batchSizes.record(messages.size());
+        try {
+            dataStore.addMessages(messages);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not apply " + messages.size() + " posted messages", e);
+            for (Post post : batch) {
+                post.applied.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Post post : batch) {
+            post.applied.complete(post.message);
+        }
+    }
+
+    private static class Post {
+        private final Message message;
+        private final CompletableFuture<Message> applied = new CompletableFuture<>();
+
+        Post(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative long values (latencies in nanoseconds, or sizes), with a bounded relative
+ * error, in the style of HdrHistogram.
+ * <p>
+ * The values are counted in log-linear buckets: the values below 128 have a bucket each, and every power of two above
+ * is split into 64 buckets. Every value is thus stored within 1/64 (about 1.6%) of its magnitude, whatever the range,
+ * in a fixed array of counters. Recording a value only computes the bucket index and increments a counter, without
+ * locking or allocating, so it can be done on every call of a hot path.
+ * <p>
+ * The values are read without stopping the writers, so the reported quantiles may mix values recorded while reading.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_RANGE = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = LINEAR_RANGE + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value the value to record. Negative values are recorded as 0
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        counts.incrementAndGet(index(recorded));
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the highest value of the bucket holding the quantile, or 0 if nothing has been recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_RANGE) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_RANGE + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR_RANGE) {
+            return index;
+        }
+        int shift = (index - LINEAR_RANGE) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - LINEAR_RANGE) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,239 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A {@link DataStore} recording the latency of every operation of another data store, along with the shape of the data
+ * the reads go through: the number of users merged into a timeline (its fan-in), the size of the walls, and the number
+ * of followers listed.
+ * <p>
+ * The lazy iterations are only timed until the iterator is returned, as they are then consumed at the pace of the client.
+ */
+public class InstrumentedDataStore implements DataStore, Closeable {
+    private static final String OPERATION_LATENCY = "datastore_operation_duration_seconds";
+    private static final String OPERATION_LATENCY_HELP = "Time spent in the data store operations";
+
+    private final DataStore delegate;
+
+    private final Histogram storeUserLatency;
+    private final Histogram storeUsersLatency;
+    private final Histogram getUserLatency;
+    private final Histogram getUsersLatency;
+    private final Histogram getFollowersLatency;
+    private final Histogram iterateFollowersLatency;
+    private final Histogram followLatency;
+    private final Histogram unfollowLatency;
+    private final Histogram followAllLatency;
+    private final Histogram addMessageLatency;
+    private final Histogram addMessagesLatency;
+    private final Histogram getWallLatency;
+    private final Histogram iterateWallLatency;
+    private final Histogram getTimelineLatency;
+    private final Histogram iterateTimelineLatency;
+
+    private final Histogram timelineFanIn;
+    private final Histogram wallSize;
+    private final Histogram followerCount;
+
+    public InstrumentedDataStore(DataStore delegate, Metrics metrics) {
+        this.delegate = delegate;
+        this.storeUserLatency = operation(metrics, "storeUser");
+        this.storeUsersLatency = operation(metrics, "storeUsers");
+        this.getUserLatency = operation(metrics, "getUser");
+        this.getUsersLatency = operation(metrics, "getUsers");
+        this.getFollowersLatency = operation(metrics, "getFollowers");
+        this.iterateFollowersLatency = operation(metrics, "iterateFollowers");
+        this.followLatency = operation(metrics, "follow");
+        this.unfollowLatency = operation(metrics, "unfollow");
+        this.followAllLatency = operation(metrics, "followAll");
+        this.addMessageLatency = operation(metrics, "addMessage");
+        this.addMessagesLatency = operation(metrics, "addMessages");
+        this.getWallLatency = operation(metrics, "getWall");
+        this.iterateWallLatency = operation(metrics, "iterateWall");
+        this.getTimelineLatency = operation(metrics, "getTimeline");
+        this.iterateTimelineLatency = operation(metrics, "iterateTimeline");
+        this.timelineFanIn = metrics.distribution("timeline_fan_in_users", "Number of followed users merged into each timeline read");
+        this.wallSize = metrics.distribution("wall_size_messages", "Number of messages on each wall read");
+        this.followerCount = metrics.distribution("follower_count_users", "Number of followers of each user whose followers are listed");
+    }
+
+    @Override
+    public boolean storeUser(User user) {
+        long start = System.nanoTime();
+        try {
+            return delegate.storeUser(user);
+        } finally {
+            storeUserLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean[] storeUsers(List<User> users) {
+        long start = System.nanoTime();
+        try {
+            return delegate.storeUsers(users);
+        } finally {
+            storeUsersLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Optional<User> getUser(String username) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getUser(username);
+        } finally {
+            getUserLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getUsers();
+        } finally {
+            getUsersLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<User> getFollowers(User user, String after, int limit) {
+        followerCount.record(user.getFollowerCount());
+        long start = System.nanoTime();
+        try {
+            return delegate.getFollowers(user, after, limit);
+        } finally {
+            getFollowersLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Iterator<User> iterateFollowers(User user, String after) {
+        followerCount.record(user.getFollowerCount());
+        long start = System.nanoTime();
+        try {
+            return delegate.iterateFollowers(user, after);
+        } finally {
+            iterateFollowersLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean follow(User follower, User followed) {
+        long start = System.nanoTime();
+        try {
+            return delegate.follow(follower, followed);
+        } finally {
+            followLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean unfollow(User follower, User followed) {
+        long start = System.nanoTime();
+        try {
+            return delegate.unfollow(follower, followed);
+        } finally {
+            unfollowLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean[] followAll(List<Follow> follows) {
+        long start = System.nanoTime();
+        try {
+            return delegate.followAll(follows);
+        } finally {
+            followAllLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        long start = System.nanoTime();
+        try {
+            delegate.addMessage(message);
+        } finally {
+            addMessageLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void addMessages(List<Message> messages) {
+        long start = System.nanoTime();
+        try {
+            delegate.addMessages(messages);
+        } finally {
+            addMessagesLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Message> getWall(User user, long before, int limit) {
+        wallSize.record(user.getWall().size());
+        long start = System.nanoTime();
+        try {
+            return delegate.getWall(user, before, limit);
+        } finally {
+            getWallLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Iterator<Message> iterateWall(User user, long before) {
+        wallSize.record(user.getWall().size());
+        long start = System.nanoTime();
+        try {
+            return delegate.iterateWall(user, before);
+        } finally {
+            iterateWallLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Message> getTimeline(User user, long before, int limit) {
+        timelineFanIn.record(user.getFollowingCount());
+        long start = System.nanoTime();
+        try {
+            return delegate.getTimeline(user, before, limit);
+        } finally {
+            getTimelineLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        timelineFanIn.record(user.getFollowingCount());
+        long start = System.nanoTime();
+        try {
+            return delegate.iterateTimeline(user, before, expectedCount);
+        } finally {
+            iterateTimelineLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Closes the delegate, if it holds resources
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private static Histogram operation(Metrics metrics, String operation) {
+        return metrics.latency(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", operation);
+    }
+}
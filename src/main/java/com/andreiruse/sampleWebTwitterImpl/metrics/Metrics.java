@@ -0,0 +1,144 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The registry of the application's metrics, written out in the Prometheus text exposition format.
+ * <p>
+ * Histograms are grouped in families sharing a name, and told apart by the value of a single label (e.g. the data
+ * store operation). They are exposed as Prometheus summaries: a few quantiles, the sum and the count. Latencies are
+ * recorded in nanoseconds, and exposed in seconds, as Prometheus expects.
+ * <p>
+ * Looking up a histogram goes through a concurrent map; the hot paths should keep the histograms they record to.
+ */
+public class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets, or creates, a histogram of latencies.
+     *
+     * @param name       the name of the family, ending with _seconds
+     * @param help       the description of the family
+     * @param labelName  the label telling apart the histograms of the family
+     * @param labelValue the value of the label for this histogram
+     * @return the histogram, recording nanoseconds
+     */
+    public Histogram latency(String name, String help, String labelName, String labelValue) {
+        return family(name, help, labelName, 1 / NANOS_PER_SECOND).histogram(labelValue);
+    }
+
+    /**
+     * Gets, or creates, an unlabelled histogram of sizes.
+     *
+     * @param name the name of the histogram
+     * @param help the description of the histogram
+     * @return the histogram
+     */
+    public Histogram distribution(String name, String help) {
+        return family(name, help, null, 1).histogram(null);
+    }
+
+    /**
+     * Registers a value read when the metrics are written.
+     *
+     * @param name  the name of the value
+     * @param help  the description of the value
+     * @param type  the Prometheus type of the value: counter or gauge
+     * @param value reads the value
+     */
+    public void gauge(String name, String help, String type, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, type, value));
+    }
+
+    /**
+     * Writes every metric, in the Prometheus text exposition format.
+     *
+     * @param writer where to write the metrics
+     * @throws IOException if the writer fails
+     */
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            header(writer, name, family.help, "summary");
+            for (Map.Entry<String, Histogram> child : family.histograms.entrySet()) {
+                String label = family.labelName == null ? "" : family.labelName + "=\"" + escape(child.getKey()) + "\"";
+                Histogram histogram = child.getValue();
+                for (double quantile : QUANTILES) {
+                    String labels = label.isEmpty() ? "quantile=\"" + quantile + "\"" : label + ",quantile=\"" + quantile + "\"";
+                    sample(writer, name, labels, histogram.getValueAtQuantile(quantile) * family.scale);
+                }
+                sample(writer, name + "_sum", label, histogram.getSum() * family.scale);
+                sample(writer, name + "_count", label, histogram.getCount());
+            }
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            Gauge gauge = entry.getValue();
+            header(writer, entry.getKey(), gauge.help, gauge.type);
+            sample(writer, entry.getKey(), "", gauge.value.getAsDouble());
+        }
+    }
+
+    private Family family(String name, String help, String labelName, double scale) {
+        return families.computeIfAbsent(name, x -> new Family(help, labelName, scale));
+    }
+
+    private static void header(Writer writer, String name, String help, String type) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void sample(Writer writer, String name, String labels, double value) throws IOException {
+        writer.write(labels.isEmpty() ? name : name + "{" + labels + "}");
+        writer.write(" " + value + "\n");
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * The histograms sharing a name, by label value
+     */
+    private static final class Family {
+        private static final String UNLABELLED = "";
+
+        private final String help;
+        private final String labelName;
+        private final double scale; //From the recorded unit to the exposed one
+        private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String labelName, double scale) {
+            this.help = help;
+            this.labelName = labelName;
+            this.scale = scale;
+        }
+
+        private Histogram histogram(String labelValue) {
+            return histograms.computeIfAbsent(labelValue == null ? UNLABELLED : labelValue, x -> new Histogram());
+        }
+    }
+
+    private static final class Gauge {
+        private final String help;
+        private final String type;
+        private final DoubleSupplier value;
+
+        private Gauge(String help, String type, DoubleSupplier value) {
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
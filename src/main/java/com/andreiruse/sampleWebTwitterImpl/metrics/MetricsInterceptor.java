@@ -0,0 +1,45 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the latency of every request, by controller method (e.g. UsersController.getTimeline), from the moment
+ * the handler is picked until the response has been written, including the serialization of the response body.
+ * <p>
+ * The histogram of each controller method is looked up once, then cached by method, so that recording a request does
+ * not build its label, nor look it up in the {@link Metrics}.
+ */
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+    private final Metrics metrics;
+    private final ConcurrentMap<Method, Histogram> latencies = new ConcurrentHashMap<>();
+
+    public MetricsInterceptor(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start instanceof Long && handler instanceof HandlerMethod) {
+            HandlerMethod method = (HandlerMethod) handler;
+            latencies.computeIfAbsent(method.getMethod(), key -> metrics.latency("http_request_duration_seconds",
+                    "Time spent serving the requests, by controller method", "handler", method.getBeanType().getSimpleName() + "." + key.getName()))
+                    .record(System.nanoTime() - (Long) start);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+/**
+ * Controls when the {@link WriteAheadLog} forces its writes to the storage device.
+ */
+public enum FsyncPolicy {
+    /**
+     * Every group-committed batch is forced to disk before the writers are acknowledged: no acknowledged write is lost on a crash.
+     */
+    BATCH,
+    /**
+     * Writers are acknowledged as soon as their batch is handed to the operating system, and the log is forced to disk
+     * periodically: a crash of the machine (but not of the process) may lose the writes of the last interval.
+     */
+    INTERVAL
+}
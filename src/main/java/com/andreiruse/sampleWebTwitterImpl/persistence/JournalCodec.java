@@ -0,0 +1,163 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of the journal records, shared by the write-ahead log and the snapshots.
+ * <p>
+ * Each record is laid out as:
+ * * 4 bytes: the length of the payload
+ * * 4 bytes: the CRC-32 checksum of the payload
+ * * the payload: a 1-byte record type, followed by the record fields. Strings are encoded as a 4-byte length, followed by their UTF-8 bytes.
+ * <p>
+ * Decoding stops at the first record that is incomplete, or whose checksum does not match, which is how a log torn by a crash is detected.
+ */
+public final class JournalCodec {
+    static final byte USER = 1;
+    static final byte FOLLOW = 2;
+    static final byte MESSAGE = 3;
+    static final byte UNFOLLOW = 4;
+
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Upper bound of a valid payload. Anything larger is garbage left by a torn write.
+     */
+    private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+
+    private JournalCodec() {
+    }
+
+    /**
+     * Receives the records decoded by {@link #decode(ByteBuffer, Handler)}
+     */
+    public interface Handler {
+        void user(String username);
+
+        void follow(String follower, String followed);
+
+        void unfollow(String follower, String followed);
+
+        void message(long id, String username, String content);
+    }
+
+    public static byte[] user(String username) {
+        byte[] name = utf8(username);
+        ByteBuffer payload = payload(USER, 4 + name.length);
+        putString(payload, name);
+        return frame(payload);
+    }
+
+    public static byte[] follow(String follower, String followed) {
+        return edge(FOLLOW, follower, followed);
+    }
+
+    public static byte[] unfollow(String follower, String followed) {
+        return edge(UNFOLLOW, follower, followed);
+    }
+
+    public static byte[] message(long id, String username, String content) {
+        byte[] name = utf8(username);
+        byte[] text = utf8(content);
+        ByteBuffer payload = payload(MESSAGE, 8 + 8 + name.length + text.length);
+        payload.putLong(id);
+        putString(payload, name);
+        putString(payload, text);
+        return frame(payload);
+    }
+
+    /**
+     * Decodes the records in the buffer, from its position, and passes them to the handler.
+     *
+     * @param buffer  the encoded records
+     * @param handler the receiver of the decoded records
+     * @return the number of bytes holding complete and valid records. Anything after them is incomplete or corrupt
+     */
+    public static long decode(ByteBuffer buffer, Handler handler) {
+        int start = buffer.position();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int recordStart = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD_SIZE || length > buffer.remaining()) {
+                buffer.position(recordStart);
+                break;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(recordStart);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            dispatch(payload, handler);
+        }
+        return buffer.position() - start;
+    }
+
+    private static void dispatch(ByteBuffer payload, Handler handler) {
+        byte type = payload.get();
+        switch (type) {
+            case USER:
+                handler.user(getString(payload));
+                break;
+            case FOLLOW:
+                handler.follow(getString(payload), getString(payload));
+                break;
+            case MESSAGE:
+                long id = payload.getLong();
+                handler.message(id, getString(payload), getString(payload));
+                break;
+            case UNFOLLOW:
+                handler.unfollow(getString(payload), getString(payload));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static byte[] edge(byte type, String follower, String followed) {
+        byte[] followerName = utf8(follower);
+        byte[] followedName = utf8(followed);
+        ByteBuffer payload = payload(type, 8 + followerName.length + followedName.length);
+        putString(payload, followerName);
+        putString(payload, followedName);
+        return frame(payload);
+    }
+
+    private static ByteBuffer payload(byte type, int fieldsSize) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 1 + fieldsSize);
+        record.position(HEADER_SIZE);
+        record.put(type);
+        return record;
+    }
+
+    private static byte[] frame(ByteBuffer record) {
+        int length = record.position() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,613 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.MessageLog;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A file-backed implementation of the {@link DataStore} interface. It keeps all the data in an in-memory data store,
+ * and makes every change durable by writing it to a {@link WriteAheadLog} before applying it.
+ * <p>
+ * In order to keep the recovery time bounded, a compacted snapshot of the whole store is taken periodically. Taking
+ * a snapshot rotates the log to a new segment, and briefly blocks the writers while the state is captured; the
+ * snapshot is then written in the background, and the log segments it covers are deleted once it is complete.
+ * <p>
+ * On startup, the newest snapshot is memory-mapped and loaded, then only the log segments written after it are replayed.
+ * A record torn by a crash at the end of the log is detected by its checksum, and discarded.
+ */
+public class JournaledDataStore implements DataStore, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JournaledDataStore.class.getName());
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d{16})\\.bin");
+    private static final Pattern SEGMENT_FILE = Pattern.compile("wal-(\\d{16})\\.log");
+    /**
+     * Files are mapped in windows of this size, as a single mapping is limited to 2GB
+     */
+    private static final long MAPPING_WINDOW = 1L << 30;
+    private static final int USERNAME_LOCK_STRIPES = 64;
+
+    private final DataStore delegate;
+    private final Path directory;
+    private final WriteAheadLog log;
+    /*
+     * Every change holds the read lock while it is logged and applied, and the snapshots hold the write lock while they
+     * capture the state, so that a snapshot contains exactly the changes logged before its segment.
+     */
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    /*
+     * The inserts of users lock their canonical username, through a fixed number of stripes
+     */
+    private final Lock[] usernameLocks = new Lock[USERNAME_LOCK_STRIPES];
+    private final ScheduledExecutorService snapshotScheduler;
+
+    /**
+     * Recovers the state stored in the directory into the delegate, then starts logging the changes.
+     *
+     * @param delegate              an empty data store, holding the data in memory
+     * @param directory             the directory holding the snapshots and the log segments. It is created if missing
+     * @param fsyncPolicy           when the log is forced to disk
+     * @param fsyncIntervalMillis   the maximum time between two forces, with the {@link FsyncPolicy#INTERVAL} policy
+     * @param snapshotIntervalMillis the time between two snapshots, or 0 to only take snapshots on demand
+     */
+    public JournaledDataStore(DataStore delegate, Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long snapshotIntervalMillis) throws IOException {
+        this.delegate = delegate;
+        this.directory = Files.createDirectories(directory);
+        for (int i = 0; i < usernameLocks.length; i++) {
+            usernameLocks[i] = new ReentrantLock();
+        }
+        long lastSegment = recover();
+        this.log = new WriteAheadLog(directory, lastSegment + 1, fsyncPolicy, fsyncIntervalMillis);
+
+        if (snapshotIntervalMillis > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotScheduler = null;
+        }
+    }
+
+    /**
+     * The username is locked while it is checked, logged and stored, so that of two concurrent inserts of the same
+     * username, or of two case variants of it, only the one this store keeps is logged.
+     */
+    @Override
+    public boolean storeUser(User user) {
+        snapshotLock.readLock().lock();
+        try {
+            Lock usernameLock = usernameLock(user.getUsername());
+            usernameLock.lock();
+            try {
+                if (delegate.getUser(user.getUsername()).isPresent()) {
+                    return false;
+                }
+                log.append(JournalCodec.user(user.getUsername()));
+                return delegate.storeUser(user);
+            } finally {
+                usernameLock.unlock();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The whole batch is written to the log as a single group commit. The usernames of the batch are locked, in stripe
+     * order, while they are checked, logged and stored; a username appearing twice in the batch is only logged once.
+     */
+    @Override
+    public boolean[] storeUsers(List<User> users) {
+        snapshotLock.readLock().lock();
+        try {
+            List<Lock> locks = lockUsernames(users.stream().map(User::getUsername));
+            try {
+                List<byte[]> records = new ArrayList<>(users.size());
+                Set<String> logged = new HashSet<>();
+                for (User user : users) {
+                    if (!delegate.getUser(user.getUsername()).isPresent() && logged.add(canonicalUsername(user.getUsername()))) {
+                        records.add(JournalCodec.user(user.getUsername()));
+                    }
+                }
+                log.appendAll(records);
+                return delegate.storeUsers(users);
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> getUser(String username) {
+        return delegate.getUser(username);
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        return delegate.getUsers();
+    }
+
+    @Override
+    public List<User> getFollowers(User user, String after, int limit) {
+        return delegate.getFollowers(user, after, limit);
+    }
+
+    @Override
+    public Iterator<User> iterateFollowers(User user, String after) {
+        return delegate.iterateFollowers(user, after);
+    }
+
+    /**
+     * The follower's {@link User#getEdgeLock() edge lock} is held while logging and applying, so that the follows and
+     * unfollows of a user are logged in the order they are applied. It is not a monitor, so a virtual thread waiting
+     * for the log with it does not pin its carrier thread. Follows that would have no effect are not logged.
+     */
+    @Override
+    public boolean follow(User follower, User followed) {
+        snapshotLock.readLock().lock();
+        try {
+            Lock edgeLock = follower.getEdgeLock();
+            edgeLock.lock();
+            try {
+                if (follower.isFollowing(followed)) {
+                    return false;
+                }
+                log.append(JournalCodec.follow(follower.getUsername(), followed.getUsername()));
+                return delegate.follow(follower, followed);
+            } finally {
+                edgeLock.unlock();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * See {@link #follow(User, User)}
+     */
+    @Override
+    public boolean unfollow(User follower, User followed) {
+        snapshotLock.readLock().lock();
+        try {
+            Lock edgeLock = follower.getEdgeLock();
+            edgeLock.lock();
+            try {
+                if (!follower.isFollowing(followed)) {
+                    return false;
+                }
+                log.append(JournalCodec.unfollow(follower.getUsername(), followed.getUsername()));
+                return delegate.unfollow(follower, followed);
+            } finally {
+                edgeLock.unlock();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The whole batch is written to the log as a single group commit. The edge locks of the followers are held while
+     * logging and applying, as in {@link #follow(User, User)}, so that a follow of the batch cannot be logged before,
+     * and applied after, a concurrent follow or unfollow of the same edge. They are taken in user identifier order, so
+     * that concurrent batches cannot deadlock.
+     */
+    @Override
+    public boolean[] followAll(List<Follow> follows) {
+        snapshotLock.readLock().lock();
+        try {
+            List<Lock> edgeLocks = lockInIdOrder(follows.stream().map(Follow::getFollower), User::getEdgeLock);
+            try {
+                List<byte[]> records = new ArrayList<>(follows.size());
+                for (Follow follow : follows) {
+                    records.add(JournalCodec.follow(follow.getFollower().getUsername(), follow.getFollowed().getUsername()));
+                }
+                log.appendAll(records);
+                return delegate.followAll(follows);
+            } finally {
+                edgeLocks.forEach(Lock::unlock);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The lock of the author's wall is held while logging and applying: the identifier of the message is generated
+     * under it, to be logged, so the messages of an author are logged, and appended to the wall, in identifier order.
+     */
+    @Override
+    public void addMessage(Message message) {
+        snapshotLock.readLock().lock();
+        try {
+            MessageLog wall = message.getAuthor().getWall();
+            Lock appendLock = wall.getAppendLock();
+            appendLock.lock();
+            try {
+                log.append(JournalCodec.message(wall.assignId(message), message.getUsername(), message.getContent()));
+                delegate.addMessage(message);
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The whole batch is written to the log as a single group commit. The locks of the authors' walls are held while
+     * logging and applying, as in {@link #addMessage(Message)}; they are taken in user identifier order, so that
+     * concurrent batches cannot deadlock.
+     */
+    @Override
+    public void addMessages(List<Message> messages) {
+        snapshotLock.readLock().lock();
+        try {
+            List<Lock> appendLocks = lockInIdOrder(messages.stream().map(Message::getAuthor), author -> author.getWall().getAppendLock());
+            try {
+                List<byte[]> records = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    records.add(JournalCodec.message(message.getAuthor().getWall().assignId(message), message.getUsername(), message.getContent()));
+                }
+                log.appendAll(records);
+                delegate.addMessages(messages);
+            } finally {
+                appendLocks.forEach(Lock::unlock);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getWall(User user, long before, int limit) {
+        return delegate.getWall(user, before, limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateWall(User user, long before) {
+        return delegate.iterateWall(user, before);
+    }
+
+    @Override
+    public List<Message> getTimeline(User user, long before, int limit) {
+        return delegate.getTimeline(user, before, limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        return delegate.iterateTimeline(user, before, expectedCount);
+    }
+
+    /**
+     * Takes a compacted snapshot of the store, and deletes the snapshots and log segments it supersedes.
+     * The writers are only blocked while the state is captured, not while the snapshot is written.
+     */
+    public synchronized void snapshot() throws IOException {
+        long segment;
+        List<User> users;
+        List<Follow> follows = new ArrayList<>();
+        List<WallSnapshot> walls = new ArrayList<>();
+        snapshotLock.writeLock().lock();
+        try {
+            segment = log.rotate();
+            users = new ArrayList<>(delegate.getUsers());
+            //Restored in the same order, so that they get the same identifiers, and their followers are listed in the same order
+            users.sort(Comparator.comparingInt(User::getId));
+            for (User user : users) {
+                PrimitiveIterator.OfInt following = user.getFollowingIds().iterator(-1);
+                while (following.hasNext()) {
+                    follows.add(new Follow(user, user.getRegistry().get(following.nextInt())));
+                }
+                if (!user.getWall().isEmpty()) {
+                    walls.add(new WallSnapshot(user.getWall(), user.getWall().size()));
+                }
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        Path temporary = directory.resolve(snapshotName(segment) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            for (User user : users) {
+                writer.write(JournalCodec.user(user.getUsername()));
+            }
+            for (Follow follow : follows) {
+                writer.write(JournalCodec.follow(follow.getFollower().getUsername(), follow.getFollowed().getUsername()));
+            }
+            //Messages are written in identifier order, so that replaying them fills the timeline inboxes in order
+            PriorityQueue<WallSnapshot> oldestFirst = new PriorityQueue<>(Math.max(1, walls.size()), (a, b) -> Long.compare(a.headId(), b.headId()));
+            oldestFirst.addAll(walls);
+            while (!oldestFirst.isEmpty()) {
+                WallSnapshot wall = oldestFirst.poll();
+                Message message = wall.head();
+                writer.write(JournalCodec.message(message.getId(), message.getUsername(), message.getContent()));
+                if (wall.advance()) {
+                    oldestFirst.add(wall);
+                }
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(snapshotName(segment)), StandardCopyOption.ATOMIC_MOVE);
+        deleteFilesBefore(segment);
+    }
+
+    /**
+     * Stops taking snapshots, and closes the log. Any change still queued is written first.
+     */
+    @Override
+    public void close() throws IOException {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        log.close();
+    }
+
+    /**
+     * Takes a lock of each of the users, once per user, in user identifier order.
+     *
+     * @return the locks taken, to release once done
+     */
+    private static List<Lock> lockInIdOrder(Stream<User> users, Function<User, Lock> lockOf) {
+        List<Lock> locks = users.distinct()
+                .sorted(Comparator.comparingInt(User::getId))
+                .map(lockOf)
+                .collect(Collectors.toList());
+        locks.forEach(Lock::lock);
+        return locks;
+    }
+
+    private Lock usernameLock(String username) {
+        return usernameLocks[usernameStripe(username)];
+    }
+
+    private static int usernameStripe(String username) {
+        return Math.floorMod(canonicalUsername(username).hashCode(), USERNAME_LOCK_STRIPES);
+    }
+
+    /**
+     * Locks the stripes of the usernames, in stripe order, so that concurrent batches can not deadlock.
+     *
+     * @return the locks taken, to release once done
+     */
+    private List<Lock> lockUsernames(Stream<String> usernames) {
+        List<Lock> locks = usernames.mapToInt(JournaledDataStore::usernameStripe)
+                .distinct()
+                .sorted()
+                .mapToObj(stripe -> usernameLocks[stripe])
+                .collect(Collectors.toList());
+        locks.forEach(Lock::lock);
+        return locks;
+    }
+
+    /**
+     * The usernames are unique regardless of case, as in the in-memory store
+     */
+    private static String canonicalUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not take a snapshot of the data store", e);
+        }
+    }
+
+    /**
+     * Loads the newest snapshot, then replays the log segments written after it.
+     *
+     * @return the number of the last segment found, or of the snapshot if there is no segment after it (0 for an empty directory)
+     */
+    private long recover() throws IOException {
+        List<Long> snapshots = fileNumbers(SNAPSHOT_FILE);
+        long snapshotSegment = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        Replayer replayer = new Replayer();
+        if (snapshotSegment > 0) {
+            replay(directory.resolve(snapshotName(snapshotSegment)), replayer, false);
+        }
+
+        List<Long> segments = fileNumbers(SEGMENT_FILE);
+        long lastSegment = snapshotSegment;
+        for (long segment : segments) {
+            if (segment >= snapshotSegment) {
+                replay(WriteAheadLog.segmentPath(directory, segment), replayer, true);
+                lastSegment = segment;
+            }
+        }
+        return lastSegment;
+    }
+
+    /**
+     * Replays a file, mapping it in memory window by window.
+     *
+     * @param truncateTornTail whether an incomplete or corrupt tail is cut off the file (log segments), or reported (snapshots)
+     */
+    private static void replay(Path file, JournalCodec.Handler handler, boolean truncateTornTail) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long window = Math.min(size - position, MAPPING_WINDOW);
+                boolean lastWindow = position + window == size;
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                long decoded = JournalCodec.decode(mapped, handler);
+                position += decoded;
+                //A record cut by the end of a window is decoded from the next window; anything else left over is not a valid record
+                if (decoded < window && (lastWindow || decoded == 0)) {
+                    break;
+                }
+            }
+
+            if (position < size) {
+                if (!truncateTornTail) {
+                    throw new IOException("The snapshot " + file + " is corrupt after " + position + " bytes");
+                }
+                LOGGER.warning("Discarding " + (size - position) + " torn bytes at the end of " + file);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private void deleteFilesBefore(long segment) throws IOException {
+        for (long snapshot : fileNumbers(SNAPSHOT_FILE)) {
+            if (snapshot < segment) {
+                Files.deleteIfExists(directory.resolve(snapshotName(snapshot)));
+            }
+        }
+        for (long logSegment : fileNumbers(SEGMENT_FILE)) {
+            if (logSegment < segment) {
+                Files.deleteIfExists(WriteAheadLog.segmentPath(directory, logSegment));
+            }
+        }
+    }
+
+    private List<Long> fileNumbers(Pattern pattern) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static String snapshotName(long segment) {
+        return String.format("snapshot-%016d.bin", segment);
+    }
+
+    /**
+     * Applies the recovered records to the delegate
+     */
+    private class Replayer implements JournalCodec.Handler {
+        @Override
+        public void user(String username) {
+            delegate.storeUser(new User(username));
+        }
+
+        @Override
+        public void follow(String follower, String followed) {
+            Optional<User> followerMatch = delegate.getUser(follower);
+            Optional<User> followedMatch = delegate.getUser(followed);
+            if (followerMatch.isPresent() && followedMatch.isPresent()) {
+                delegate.follow(followerMatch.get(), followedMatch.get());
+            }
+        }
+
+        @Override
+        public void unfollow(String follower, String followed) {
+            Optional<User> followerMatch = delegate.getUser(follower);
+            Optional<User> followedMatch = delegate.getUser(followed);
+            if (followerMatch.isPresent() && followedMatch.isPresent()) {
+                delegate.unfollow(followerMatch.get(), followedMatch.get());
+            }
+        }
+
+        @Override
+        public void message(long id, String username, String content) {
+            delegate.getUser(username).ifPresent(author -> delegate.addMessage(new Message(id, author, content)));
+        }
+    }
+
+    /**
+     * The part of a wall captured by a snapshot, and the position of the next message to write
+     */
+    private static class WallSnapshot {
+        private final MessageLog wall;
+        private final int length;
+        private int index;
+
+        private WallSnapshot(MessageLog wall, int length) {
+            this.wall = wall;
+            this.length = length;
+        }
+
+        private long headId() {
+            return wall.idAt(index);
+        }
+
+        private Message head() {
+            return wall.get(index);
+        }
+
+        private boolean advance() {
+            return ++index < length;
+        }
+    }
+
+    /**
+     * Buffers the snapshot records, so that they are written to the file in large blocks
+     */
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        private SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void write(byte[] record) throws IOException {
+            if (record.length > buffer.remaining()) {
+                flush();
+            }
+            if (record.length > buffer.capacity()) {
+                channel.write(ByteBuffer.wrap(record));
+            } else {
+                buffer.put(record);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
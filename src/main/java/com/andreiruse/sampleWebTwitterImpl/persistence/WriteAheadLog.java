@@ -0,0 +1,248 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only log of encoded {@link JournalCodec} records, split into numbered segment files (wal-0000000000000001.log, ...).
+ * <p>
+ * Writes are group-committed: the writer threads queue their records and wait, while a single flusher thread drains
+ * the queue, writes everything queued so far with one gathering write, and (depending on the {@link FsyncPolicy})
+ * forces it to disk once for the whole batch, before acknowledging every writer of the batch. Under load, the cost
+ * of a write system call and of an fsync is therefore shared by many records.
+ * <p>
+ * The log is fail-stop: once a write or a force has failed, the segment may end with a partially written batch, and what
+ * reached the disk is unknown. Any record appended after it could be lost on recovery, behind the torn bytes, so every
+ * later append is rejected, with the original failure as the cause. The tail is then discarded by the recovery.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final PendingWrite SHUTDOWN = new PendingWrite(new byte[0]); //Queued by close(), to stop the flusher thread
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private final Object channelLock = new Object();
+
+    private FileChannel channel;
+    private long segment;
+    private boolean dirty; //Written, but not forced to disk yet
+    private long lastFsync = System.nanoTime();
+    private volatile boolean closed;
+    private volatile IOException failure; //The failed write or force, after which the log rejects every append
+
+    /**
+     * Opens a new, empty segment, and starts the flusher thread.
+     *
+     * @param directory          the directory holding the segment files
+     * @param segment            the number of the segment to create
+     * @param fsyncPolicy        when the writes are forced to disk
+     * @param fsyncIntervalMillis the maximum time between two forces, with the {@link FsyncPolicy#INTERVAL} policy
+     */
+    public WriteAheadLog(Path directory, long segment, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("wal-%016d.log", segment));
+    }
+
+    /**
+     * Appends a record to the log, and waits until it has been written, and forced to disk if the policy requires it.
+     *
+     * @param record a record encoded by {@link JournalCodec}
+     * @throws UncheckedIOException if the record could not be written, or if the log has failed before
+     */
+    public void append(byte[] record) {
+        checkWritable();
+        PendingWrite write = new PendingWrite(record);
+        queue.add(write);
+        await(write);
+    }
+
+    /**
+     * Appends several records to the log, and waits until they have all been written, and forced to disk if the policy requires it.
+     * The records are queued together, so they are usually written by the same group commit.
+     *
+     * @param records records encoded by {@link JournalCodec}
+     * @throws UncheckedIOException if a record could not be written, or if the log has failed before
+     */
+    public void appendAll(List<byte[]> records) {
+        checkWritable();
+        List<PendingWrite> writes = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            writes.add(new PendingWrite(record));
+        }
+        queue.addAll(writes);
+        for (PendingWrite write : writes) {
+            await(write);
+        }
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("The write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("The write-ahead log has failed, and rejects every append", failure);
+        }
+    }
+
+    private static void await(PendingWrite write) {
+        try {
+            write.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Could not write to the write-ahead log", (IOException) e.getCause());
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, closes it, and starts writing to the next segment.
+     * The caller has to make sure that no append is in progress, so that the current segment holds every record appended so far.
+     *
+     * @return the number of the new segment
+     * @throws IOException if the segment could not be rotated, or if the log has failed before
+     */
+    public long rotate() throws IOException {
+        synchronized (channelLock) {
+            if (failure != null) {
+                throw new IOException("The write-ahead log has failed", failure);
+            }
+            channel.force(false);
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            dirty = false;
+            return segment;
+        }
+    }
+
+    public long currentSegment() {
+        synchronized (channelLock) {
+            return segment;
+        }
+    }
+
+    /**
+     * Writes the records queued so far, stops the flusher thread, and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channelLock) {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void flushLoop() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean running = true;
+        while (running) {
+            try {
+                PendingWrite first = fsyncPolicy == FsyncPolicy.INTERVAL && dirty
+                        ? queue.poll(fsyncIntervalNanos, TimeUnit.NANOSECONDS)
+                        : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            running = !batch.remove(SHUTDOWN);
+            writeBatch(batch);
+            batch.clear();
+        }
+
+        //Writers that raced with close() are failed, rather than left waiting forever
+        queue.drainTo(batch);
+        for (PendingWrite write : batch) {
+            write.done.completeExceptionally(new IOException("The write-ahead log is closed"));
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        if (failure != null) {
+            for (PendingWrite write : batch) {
+                write.done.completeExceptionally(failure);
+            }
+            return;
+        }
+        try {
+            synchronized (channelLock) {
+                if (!batch.isEmpty()) {
+                    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                    long remaining = 0;
+                    for (int i = 0; i < buffers.length; i++) {
+                        buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                        remaining += buffers[i].remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    dirty = true;
+                }
+                if (dirty && (fsyncPolicy == FsyncPolicy.BATCH || System.nanoTime() - lastFsync >= fsyncIntervalNanos)) {
+                    channel.force(false);
+                    dirty = false;
+                    lastFsync = System.nanoTime();
+                }
+            }
+            for (PendingWrite write : batch) {
+                write.done.complete(null);
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (PendingWrite write : batch) {
+                write.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        private final byte[] record;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private PendingWrite(byte[] record) {
+            this.record = record;
+        }
+    }
+}
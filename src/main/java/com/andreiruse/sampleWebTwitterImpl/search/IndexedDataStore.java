@@ -0,0 +1,146 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.MessageIdGenerator;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.trends.TrendTracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A {@link DataStore} adding the messages of another data store to a {@link MessageIndex}, once they have been stored,
+ * so that the index is maintained whichever endpoint posts them. Every other operation is passed through.
+ * <p>
+ * The hashtags found while splitting a message are also counted by a {@link TrendTracker}, at the time the message was
+ * created (which is encoded in its identifier).
+ * <p>
+ * When the messages are persisted, this store sits below the {@link com.andreiruse.sampleWebTwitterImpl.persistence.JournaledDataStore},
+ * so that the recovered messages are indexed as well.
+ */
+public class IndexedDataStore implements DataStore, Closeable {
+    private final DataStore delegate;
+    private final MessageIndex index;
+    private final TrendTracker trends;
+
+    public IndexedDataStore(DataStore delegate, MessageIndex index, TrendTracker trends) {
+        this.delegate = delegate;
+        this.index = index;
+        this.trends = trends;
+    }
+
+    @Override
+    public boolean storeUser(User user) {
+        return delegate.storeUser(user);
+    }
+
+    @Override
+    public boolean[] storeUsers(List<User> users) {
+        return delegate.storeUsers(users);
+    }
+
+    @Override
+    public Optional<User> getUser(String username) {
+        return delegate.getUser(username);
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        return delegate.getUsers();
+    }
+
+    @Override
+    public List<User> getFollowers(User user, String after, int limit) {
+        return delegate.getFollowers(user, after, limit);
+    }
+
+    @Override
+    public Iterator<User> iterateFollowers(User user, String after) {
+        return delegate.iterateFollowers(user, after);
+    }
+
+    @Override
+    public boolean follow(User follower, User followed) {
+        return delegate.follow(follower, followed);
+    }
+
+    @Override
+    public boolean unfollow(User follower, User followed) {
+        return delegate.unfollow(follower, followed);
+    }
+
+    @Override
+    public boolean[] followAll(List<Follow> follows) {
+        return delegate.followAll(follows);
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        delegate.addMessage(message);
+        index(message);
+    }
+
+    @Override
+    public void addMessages(List<Message> messages) {
+        delegate.addMessages(messages);
+        for (Message message : messages) {
+            index(message);
+        }
+    }
+
+    @Override
+    public List<Message> getWall(User user, long before, int limit) {
+        return delegate.getWall(user, before, limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateWall(User user, long before) {
+        return delegate.iterateWall(user, before);
+    }
+
+    @Override
+    public List<Message> getTimeline(User user, long before, int limit) {
+        return delegate.getTimeline(user, before, limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        return delegate.iterateTimeline(user, before, expectedCount);
+    }
+
+    public MessageIndex getIndex() {
+        return index;
+    }
+
+    public TrendTracker getTrends() {
+        return trends;
+    }
+
+    /**
+     * Closes the delegate, if it holds resources
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private void index(Message message) {
+        Set<String> terms = Tokenizer.terms(message.getContent());
+        index.index(message, terms);
+        long createdAt = MessageIdGenerator.timestampMillis(message.getId());
+        for (String term : terms) {
+            if (term.charAt(0) == '#') {
+                trends.record(term, createdAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory inverted index of the messages' content, maintained as the messages are posted: every term of a message
+ * (see {@link Tokenizer}) maps to the {@link PostingList} of the messages containing it, sorted by identifier.
+ * <p>
+ * A query returns the newest messages containing all of its terms. The posting lists are intersected from the newest
+ * message backwards, by leapfrogging: every list skips, with a binary search, to the newest message not newer than the
+ * current candidate, which is lowered until all the lists agree. The search stops as soon as the page is full, so it only
+ * reads the tail of the lists, and does not depend on the total number of messages. The rarest term leads, as it is
+ * the one skipping the furthest.
+ * <p>
+ * The index can be shared between threads: the lists are looked up in a concurrent map, and each list has its own lock.
+ */
+public class MessageIndex {
+    /**
+     * Number of postings copied from a list at once, while holding its lock
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    private final ConcurrentMap<String, PostingList> postings = new ConcurrentHashMap<>();
+    private final LongAdder postingCount = new LongAdder();
+
+    /**
+     * Adds a message to the lists of its terms. Adding a message twice has no effect.
+     *
+     * @param message the message to index
+     */
+    public void index(Message message) {
+        index(message, Tokenizer.terms(message.getContent()));
+    }
+
+    /**
+     * Adds a message to the lists of its terms, already split by the {@link Tokenizer}.
+     */
+    void index(Message message, Set<String> terms) {
+        for (String term : terms) {
+            if (postings.computeIfAbsent(term, t -> new PostingList()).add(message)) {
+                postingCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Lists the newest messages containing all the terms of a query, in reverse chronological order.
+     *
+     * @param query  the terms to look for, split like the messages
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @return the newest matching messages, or an empty list if the query has no term
+     */
+    public List<Message> search(String query, long before, int limit) {
+        Set<String> terms = Tokenizer.terms(query);
+        List<Cursor> cursors = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new ArrayList<>();
+            }
+            cursors.add(new Cursor(list));
+        }
+        List<Message> messages = new ArrayList<>();
+        if (cursors.isEmpty() || before == Long.MIN_VALUE) {
+            return messages;
+        }
+        cursors.sort(Comparator.comparingInt(cursor -> cursor.list.size()));
+
+        long candidate = before - 1;
+        while (messages.size() < limit) {
+            boolean matched = true;
+            for (Cursor cursor : cursors) {
+                if (!cursor.seek(candidate)) {
+                    return messages;
+                }
+                if (cursor.id() < candidate) {
+                    candidate = cursor.id();
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                Cursor lead = cursors.get(0);
+                Message message = lead.author().getWall().find(candidate);
+                if (message != null) {
+                    messages.add(message);
+                }
+                if (candidate == Long.MIN_VALUE) {
+                    break;
+                }
+                candidate--;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return the number of distinct terms
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * @return the number of (term, message) pairs
+     */
+    public long getPostingCount() {
+        return postingCount.sum();
+    }
+
+    /**
+     * Walks a posting list from the newest message backwards, through chunks copied from the list. The targets of
+     * {@link #seek(long)} never increase, so a chunk is scanned at most once, and a new one is copied only when the target
+     * is older than the whole chunk.
+     */
+    private static class Cursor {
+        private final PostingList list;
+        private final long[] ids = new long[CHUNK_SIZE];
+        private final User[] authors = new User[CHUNK_SIZE];
+        private int count;
+        private int position;
+        private boolean fetched;
+
+        Cursor(PostingList list) {
+            this.list = list;
+        }
+
+        /**
+         * Moves to the newest message with an identifier lower than, or equal to, the target.
+         *
+         * @return false if there is no such message
+         */
+        boolean seek(long target) {
+            boolean lastChunk = count < CHUNK_SIZE;
+            if (!fetched || (target < ids[count - 1] && !lastChunk)) {
+                count = list.copyUpTo(target, ids, authors);
+                position = 0;
+                fetched = count > 0;
+                return fetched;
+            }
+            while (position < count && ids[position] > target) {
+                position++;
+            }
+            return position < count;
+        }
+
+        long id() {
+            return ids[position];
+        }
+
+        User author() {
+            return authors[position];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.Arrays;
+
+/**
+ * The messages containing a term, in chronological (identifier) order. Like in a {@link
+ * com.andreiruse.sampleWebTwitterImpl.timeline.TimelineInbox}, only the identifier and the author of each message are
+ * kept, in two parallel arrays, and the messages are looked up on their authors' walls when a query matches them.
+ * <p>
+ * Messages usually arrive in chronological order, so they are appended at the tail; late arrivals are moved back into
+ * place. All methods are synchronized on the list, and the readers only hold the lock while copying a chunk of the list
+ * (see {@link #copyUpTo(long, long[], User[])}), so that a long query does not hold back the writers.
+ */
+class PostingList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private User[] authors = new User[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param message the message to add
+     * @return true if the message has been added, false if it was already present
+     */
+    synchronized boolean add(Message message) {
+        long id = message.getId();
+        int position = size;
+        if (size > 0 && ids[size - 1] >= id) {
+            position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            authors = Arrays.copyOf(authors, 2 * size);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(authors, position, authors, position + 1, size - position);
+        ids[position] = id;
+        authors[position] = message.getAuthor();
+        size++;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies the newest postings with an identifier lower than, or equal to, the given one, newest first.
+     *
+     * @param upTo         the highest identifier to copy
+     * @param chunkIds     receives the identifiers
+     * @param chunkAuthors receives the authors, at the same indexes
+     * @return the number of postings copied, at most the length of the arrays. Less only if the list has no older posting
+     */
+    synchronized int copyUpTo(long upTo, long[] chunkIds, User[] chunkAuthors) {
+        int end = Arrays.binarySearch(ids, 0, size, upTo);
+        end = end >= 0 ? end + 1 : -end - 1;
+        int count = Math.min(end, chunkIds.length);
+        for (int i = 0; i < count; i++) {
+            chunkIds[i] = ids[end - 1 - i];
+            chunkAuthors[i] = authors[end - 1 - i];
+        }
+        return count;
+    }
+}
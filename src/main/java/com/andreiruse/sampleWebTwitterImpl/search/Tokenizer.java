@@ -0,0 +1,59 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits a text into the terms of the {@link MessageIndex}: the runs of letters, digits and underscores, in lower case.
+ * <p>
+ * A run prefixed with # (a hashtag) or @ (a mention) gives two terms: the prefixed one, which only matches hashtags (or
+ * mentions), and the bare word, which matches both the word and the hashtag. The same tokenizer is used for the messages
+ * and the queries, so "#java" finds the messages tagged #java, while "java" also finds the ones merely mentioning it.
+ */
+public final class Tokenizer {
+    /**
+     * Longer runs are cut, so that a single message cannot create huge terms
+     */
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param text the text to split, possibly null
+     * @return the distinct terms of the text, in order of appearance
+     */
+    public static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            char prefix = 0;
+            int start = i;
+            if ((codePoint == '#' || codePoint == '@') && i + 1 < text.length() && isWordPart(text.codePointAt(i + 1))) {
+                prefix = (char) codePoint;
+                start = ++i;
+            } else if (!isWordPart(codePoint)) {
+                i += Character.charCount(codePoint);
+                continue;
+            }
+            while (i < text.length() && isWordPart(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            String word = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT);
+            if (prefix != 0) {
+                terms.add(prefix + word);
+            }
+            terms.add(word);
+        }
+        return terms;
+    }
+
+    private static boolean isWordPart(int codePoint) {
+        return Character.isLetterOrDigit(codePoint) || codePoint == '_';
+    }
+}
@@ -0,0 +1,84 @@
+package com.andreiruse.sampleWebTwitterImpl.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Routes the users with consistent hashing: every shard is placed at many points of a ring of 64-bit hashes (its
+ * virtual nodes), and a user belongs to the shard owning the first point at, or after, the hash of the username.
+ * <p>
+ * The virtual nodes spread the users evenly, and adding a shard only moves the users landing on its new points (about
+ * 1/N of them), instead of most of them, as hashing modulo the shard count would.
+ * <p>
+ * Usernames are hashed in lower case, with 64-bit FNV-1a followed by a final mix, rather than {@link String#hashCode()},
+ * so that the routing is well spread, and stable across JVMs.
+ */
+public class ConsistentHashRouter implements ShardRouter {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int shardCount;
+    private final long[] points; //Sorted
+    private final int[] owners; //The shard owning each point
+
+    public ConsistentHashRouter(int shardCount) {
+        this(shardCount, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param shardCount   the number of shards
+     * @param virtualNodes the number of points of each shard on the ring
+     */
+    public ConsistentHashRouter(int shardCount, int virtualNodes) {
+        if (shardCount <= 0 || virtualNodes <= 0) {
+            throw new IllegalArgumentException("The shard count and the virtual nodes have to be positive, but were "
+                    + shardCount + " and " + virtualNodes);
+        }
+        this.shardCount = shardCount;
+        long[] ring = new long[shardCount * virtualNodes];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring[shard * virtualNodes + node] = hash("shard-" + shard + "-" + node);
+            }
+        }
+        //Sorts the points, along with their owners
+        Integer[] order = new Integer[ring.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ring[a], ring[b]));
+        this.points = new long[ring.length];
+        this.owners = new int[ring.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = ring[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    @Override
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    @Override
+    public int shardOf(String username) {
+        long hash = hash(username.toLowerCase(Locale.ROOT));
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,18 @@
+package com.andreiruse.sampleWebTwitterImpl.sharding;
+
+/**
+ * Decides which shard holds a user, and everything the user owns: the wall, and the inboxes fed by the user's
+ * messages. The routing only depends on the username, so it can be computed by any node, without asking the shards.
+ */
+public interface ShardRouter {
+    /**
+     * @return the number of shards, numbered from 0
+     */
+    int getShardCount();
+
+    /**
+     * @param username the username, in any case
+     * @return the shard holding the user, between 0 and the shard count (exclusive)
+     */
+    int shardOf(String username);
+}
@@ -0,0 +1,278 @@
+package com.andreiruse.sampleWebTwitterImpl.sharding;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.domain.UserRegistry;
+import com.andreiruse.sampleWebTwitterImpl.timeline.MessageMerger;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineEngine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * A {@link DataStore} partitioning the users across several shards, themselves data stores, with their own users,
+ * locks and memory. The shard of a user is chosen by a {@link ShardRouter}, from the username only.
+ * <p>
+ * Everything a user owns lives in the user's shard: the wall, and the timeline inboxes fed by the user's messages,
+ * whoever the followers are. So a message is posted to its author's shard, and a follow is recorded by the followed
+ * user's shard, which back-fills the follower's inbox there. The timeline of a user is thus split across the shards of
+ * the followed users: each shard assembles the part posted by its own users, and the parts are gathered in parallel,
+ * then combined with a k-way merge.
+ * <p>
+ * The follow edges refer to the users by identifier, so the shards share a {@link UserRegistry}, which assigns the
+ * identifiers across all of them. Shards living in separate processes would need a remote implementation of the
+ * {@link DataStore}, and of the registry; the in-process shards ({@link #inMemory(int, Supplier)}) stand in for them.
+ * <p>
+ * The shards are not isolated for the follow state, though: the edges are held by the {@link User} objects, which all
+ * the shards share, so a follow recorded by the followed user's shard also updates the follower's edges, whichever
+ * shard the follower lives in. Only the walls and the timeline inboxes are partitioned.
+ */
+public class ShardedDataStore implements DataStore, Closeable {
+    private final List<DataStore> shards;
+    private final ShardRouter router;
+
+    /**
+     * @param shards the shards, sharing a {@link UserRegistry}
+     * @param router the router, knowing as many shards
+     */
+    public ShardedDataStore(List<DataStore> shards, ShardRouter router) {
+        if (shards.size() != router.getShardCount()) {
+            throw new IllegalArgumentException("The router expects " + router.getShardCount() + " shards, but there are " + shards.size());
+        }
+        this.shards = new ArrayList<>(shards);
+        this.router = router;
+    }
+
+    /**
+     * Creates in-process shards, routed by consistent hashing.
+     *
+     * @param shardCount the number of shards
+     * @param engines    creates the timeline engine of each shard
+     * @return the sharded data store
+     */
+    public static ShardedDataStore inMemory(int shardCount, Supplier<TimelineEngine> engines) {
+        UserRegistry registry = new UserRegistry();
+        List<DataStore> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new InMemoryDataStore(engines.get(), registry));
+        }
+        return new ShardedDataStore(shards, new ConsistentHashRouter(shardCount));
+    }
+
+    @Override
+    public boolean storeUser(User user) {
+        return shard(user).storeUser(user);
+    }
+
+    @Override
+    public boolean[] storeUsers(List<User> users) {
+        boolean[] stored = new boolean[users.size()];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = storeUser(users.get(i));
+        }
+        return stored;
+    }
+
+    @Override
+    public Optional<User> getUser(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        return shards.get(router.shardOf(username)).getUser(username);
+    }
+
+    /**
+     * @return a live view of the users of every shard, one shard after the other
+     */
+    @Override
+    public Collection<User> getUsers() {
+        return new AbstractCollection<User>() {
+            @Override
+            public Iterator<User> iterator() {
+                return shards.stream().flatMap(shard -> shard.getUsers().stream()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return shards.stream().mapToInt(shard -> shard.getUsers().size()).sum();
+            }
+        };
+    }
+
+    @Override
+    public List<User> getFollowers(User user, String after, int limit) {
+        Iterator<User> followers = iterateFollowers(user, after);
+        List<User> page = new ArrayList<>();
+        while (page.size() < limit && followers.hasNext()) {
+            page.add(followers.next());
+        }
+        return page;
+    }
+
+    /**
+     * The followers of a user can live in any shard, so they are read from the user's edges, and the cursor is looked
+     * up in its own shard.
+     */
+    @Override
+    public Iterator<User> iterateFollowers(User user, String after) {
+        int afterId = -1;
+        if (after != null) {
+            Optional<User> cursor = getUser(after);
+            if (!cursor.isPresent()) {
+                return Collections.emptyIterator();
+            }
+            afterId = cursor.get().getId();
+        }
+        return user.followersAfter(afterId);
+    }
+
+    @Override
+    public boolean follow(User follower, User followed) {
+        return shard(followed).follow(follower, followed);
+    }
+
+    @Override
+    public boolean unfollow(User follower, User followed) {
+        return shard(followed).unfollow(follower, followed);
+    }
+
+    @Override
+    public boolean[] followAll(List<Follow> follows) {
+        boolean[] followed = new boolean[follows.size()];
+        for (int i = 0; i < followed.length; i++) {
+            followed[i] = follow(follows.get(i).getFollower(), follows.get(i).getFollowed());
+        }
+        return followed;
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        shard(message.getAuthor()).addMessage(message);
+    }
+
+    @Override
+    public void addMessages(List<Message> messages) {
+        for (Message message : messages) {
+            addMessage(message);
+        }
+    }
+
+    @Override
+    public List<Message> getWall(User user, long before, int limit) {
+        return shard(user).getWall(user, before, limit);
+    }
+
+    @Override
+    public Iterator<Message> iterateWall(User user, long before) {
+        return shard(user).iterateWall(user, before);
+    }
+
+    /**
+     * Gathers the parts of the timeline from the shards of the followed users, in parallel, and merges them. Every
+     * part is limited to the page size, as the page may come from a single shard.
+     * <p>
+     * The caller gathers the first part itself, while the others are handed to the common fork-join pool, then runs
+     * the parts that no pool thread has started yet: the concurrent reads are thus never capped by the pool, which
+     * only adds parallelism when it has idle threads.
+     */
+    @Override
+    public List<Message> getTimeline(User user, long before, int limit) {
+        List<DataStore> relevant = relevantShards(user);
+        if (relevant.size() <= 1) {
+            return relevant.isEmpty() ? new ArrayList<>() : relevant.get(0).getTimeline(user, before, limit);
+        }
+
+        List<FutureTask<List<Message>>> parts = new ArrayList<>();
+        for (DataStore shard : relevant.subList(1, relevant.size())) {
+            FutureTask<List<Message>> part = new FutureTask<>(() -> shard.getTimeline(user, before, limit));
+            ForkJoinPool.commonPool().execute(part);
+            parts.add(part);
+        }
+        List<Iterator<Message>> streams = new ArrayList<>();
+        streams.add(relevant.get(0).getTimeline(user, before, limit).iterator());
+        for (FutureTask<List<Message>> part : parts) {
+            //Does nothing if a pool thread has already started the part
+            part.run();
+            streams.add(await(part).iterator());
+        }
+        return MessageMerger.newest(streams, limit);
+    }
+
+    /**
+     * Merges the lazy iterations of the shards of the followed users, which only read as far as they are consumed.
+     */
+    @Override
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        List<Iterator<Message>> streams = new ArrayList<>();
+        for (DataStore shard : relevantShards(user)) {
+            streams.add(shard.iterateTimeline(user, before, expectedCount));
+        }
+        return MessageMerger.merge(streams);
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Closes the shards holding resources
+     */
+    @Override
+    public void close() throws IOException {
+        for (DataStore shard : shards) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+
+    private DataStore shard(User user) {
+        return shards.get(router.shardOf(user.getUsername()));
+    }
+
+    /**
+     * @return the shards holding at least one of the users followed by the given user
+     */
+    private List<DataStore> relevantShards(User user) {
+        boolean[] relevant = new boolean[shards.size()];
+        List<DataStore> result = new ArrayList<>();
+        PrimitiveIterator.OfInt following = user.getFollowingIds().iterator(-1);
+        while (following.hasNext() && result.size() < shards.size()) {
+            int shard = router.shardOf(user.getRegistry().get(following.nextInt()).getUsername());
+            if (!relevant[shard]) {
+                relevant[shard] = true;
+                result.add(shards.get(shard));
+            }
+        }
+        return result;
+    }
+
+    private static List<Message> await(FutureTask<List<Message>> part) {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while gathering the timeline from the shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not gather the timeline from the shards", e.getCause());
+        }
+    }
+}
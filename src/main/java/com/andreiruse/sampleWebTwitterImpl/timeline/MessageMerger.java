@@ -0,0 +1,123 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several streams of messages, each already in reverse chronological order, into a single stream in reverse chronological order.
+ * <p>
+ * The merge is done with a heap holding the newest unread message of each stream, so reading n messages out of k
+ * streams costs O(n log k), regardless of the length of the streams: the streams are only read as far as needed.
+ * <p>
+ * A message read from several streams (e.g. from an inbox, and from the wall of its author) is only returned once.
+ */
+public final class MessageMerger {
+    private static final Comparator<Source> NEWEST_HEAD_FIRST = Comparator.comparingLong((Source source) -> source.head.getId()).reversed();
+
+    private MessageMerger() {
+    }
+
+    /**
+     * @param streams the streams to merge, each in reverse chronological order
+     * @param limit   the maximum number of messages to return
+     * @return the newest messages across all streams, in reverse chronological order
+     */
+    public static List<Message> newest(List<Iterator<Message>> streams, int limit) {
+        return take(merge(streams), limit);
+    }
+
+    /**
+     * Lazily merges the streams: each message is only read from its stream when the previous one has been returned.
+     *
+     * @param streams the streams to merge, each in reverse chronological order
+     * @return the messages across all streams, in reverse chronological order
+     */
+    public static Iterator<Message> merge(List<Iterator<Message>> streams) {
+        if (streams.isEmpty()) {
+            return Collections.emptyIterator();
+        }
+        if (streams.size() == 1) {
+            return streams.get(0);
+        }
+        return new MergingIterator(streams);
+    }
+
+    /**
+     * @param stream the stream to read
+     * @param limit  the maximum number of messages to return
+     * @return the first messages of the stream
+     */
+    public static List<Message> take(Iterator<Message> stream, int limit) {
+        List<Message> page = new ArrayList<>(Math.min(limit, 64));
+        while (page.size() < limit && stream.hasNext()) {
+            page.add(stream.next());
+        }
+        return page;
+    }
+
+    private static class MergingIterator implements Iterator<Message> {
+        private final PriorityQueue<Source> heap;
+
+        private MergingIterator(List<Iterator<Message>> streams) {
+            heap = new PriorityQueue<>(streams.size(), NEWEST_HEAD_FIRST);
+            for (Iterator<Message> stream : streams) {
+                if (stream.hasNext()) {
+                    heap.add(new Source(stream));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Message next() {
+            Source newest = heap.poll();
+            if (newest == null) {
+                throw new NoSuchElementException();
+            }
+            Message message = newest.head;
+            if (newest.advance()) {
+                heap.add(newest);
+            }
+            //The duplicates are at the head of their streams now, as the streams are in the same order
+            while (!heap.isEmpty() && heap.peek().head.getId() == message.getId()) {
+                Source duplicate = heap.poll();
+                if (duplicate.advance()) {
+                    heap.add(duplicate);
+                }
+            }
+            return message;
+        }
+    }
+
+    /**
+     * A stream, together with its newest unread message
+     */
+    private static class Source {
+        private final Iterator<Message> stream;
+        private Message head;
+
+        private Source(Iterator<Message> stream) {
+            this.stream = stream;
+            this.head = stream.next();
+        }
+
+        private boolean advance() {
+            if (stream.hasNext()) {
+                head = stream.next();
+                return true;
+            }
+            return false;
+        }
+    }
+}
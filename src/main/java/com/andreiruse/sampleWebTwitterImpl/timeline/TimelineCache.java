@@ -0,0 +1,411 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of the newest messages of the users' timelines, used by the {@link TimelineEngine} to serve the
+ * readers who keep requesting the head of their timeline without merging it again.
+ * <p>
+ * The cache is bounded both by its number of entries, and by its weight (the total number of cached messages). It is
+ * split into segments, each one guarded by its own lock and evicting its least recently used entries once it goes over
+ * its share of the bounds. Entries also expire a fixed time after they have been loaded.
+ * <p>
+ * Cached timelines are kept up to date rather than dropped: a new message is inserted into the cached timelines of the
+ * author's followers, while a follow or an unfollow invalidates the follower's timeline, which would need a full merge.
+ * A timeline being loaded while it is patched or invalidated is not cached, as it may have missed the change.
+ */
+public class TimelineCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final long DEFAULT_MAX_WEIGHT = 1_000_000;
+    public static final long DEFAULT_TTL_MILLIS = 60_000;
+    /**
+     * The minimum number of messages loaded into an entry, so that a few pages can be served from it
+     */
+    public static final int MINIMUM_WINDOW = 100;
+    /**
+     * The maximum number of messages loaded into an entry. Larger requests, e.g. for a whole timeline, are not cached
+     */
+    public static final int MAXIMUM_WINDOW = 1_000;
+
+    private static final int MAX_SEGMENTS = 16;
+    /**
+     * Small caches are not split, as the least recently used entries are only evicted per segment
+     */
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private final Segment[] segments;
+    private final int maxSegmentEntries;
+    private final long maxSegmentWeight;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public TimelineCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached timelines
+     * @param maxWeight  the maximum number of cached messages, across all the timelines
+     * @param ttlMillis  the time after which a cached timeline is loaded again
+     */
+    public TimelineCache(int maxEntries, long maxWeight, long ttlMillis) {
+        this(maxEntries, maxWeight, ttlMillis, System::nanoTime);
+    }
+
+    TimelineCache(int maxEntries, long maxWeight, long ttlMillis, LongSupplier clock) {
+        if (maxEntries <= 0 || maxWeight <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("The cache bounds have to be positive, but were " + maxEntries + " entries, "
+                    + maxWeight + " messages and " + ttlMillis + "ms");
+        }
+        int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxEntries / MIN_SEGMENT_ENTRIES)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+        this.maxSegmentEntries = maxEntries / segmentCount;
+        this.maxSegmentWeight = Math.max(1, maxWeight / segmentCount);
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.clock = clock;
+    }
+
+    /**
+     * Serves a page of a timeline from the cache.
+     *
+     * @param user   the user whose timeline is requested
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @return the page, or null if the cached messages do not cover it
+     */
+    public List<Message> get(User user, long before, int limit) {
+        Segment segment = segment(user);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(user);
+            if (entry != null && entry.messages != null) {
+                if (clock.getAsLong() - entry.loadedAt > ttlNanos) {
+                    segment.remove(user);
+                    expirations.increment();
+                } else {
+                    int from = entry.indexBefore(before);
+                    int to = from + Math.min(limit, entry.messages.length - from);
+                    if (to - from == limit || entry.complete) {
+                        hits.increment();
+                        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(entry.messages, from, to)));
+                    }
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param limit the number of messages requested
+     * @return the number of messages to load into a new entry, to serve the request
+     */
+    public int window(int limit) {
+        return Math.max(limit, MINIMUM_WINDOW);
+    }
+
+    /**
+     * @param limit the number of messages requested
+     * @return true if a new entry can be loaded to serve the request: its window is at most {@link #MAXIMUM_WINDOW}
+     * messages, and fits in the share of the weight of a segment, so that it would not be evicted right away
+     */
+    public boolean isCacheable(int limit) {
+        return window(limit) <= Math.min(MAXIMUM_WINDOW, maxSegmentWeight);
+    }
+
+    /**
+     * Reserves the entry of a timeline, before loading it. Any change to the timeline from then on cancels the
+     * reservation, so that a timeline which has missed the change is never cached.
+     *
+     * @param user the user whose timeline is about to be loaded
+     * @return the reservation, to pass to {@link #fill(Entry, List, int)}
+     */
+    public Entry reserve(User user) {
+        Entry entry = new Entry(user);
+        Segment segment = segment(user);
+        synchronized (segment) {
+            segment.remove(user);
+            segment.entries.put(user, entry);
+            evict(segment);
+        }
+        return entry;
+    }
+
+    /**
+     * Caches a loaded timeline, unless its reservation has been cancelled or evicted meanwhile.
+     *
+     * @param entry    the reservation
+     * @param messages the newest messages of the timeline, in reverse chronological order
+     * @param window   the number of messages requested when loading the timeline (see {@link #window(int)}). Fewer
+     *                 messages means that they are the whole timeline
+     */
+    public void fill(Entry entry, List<Message> messages, int window) {
+        Segment segment = segment(entry.user);
+        synchronized (segment) {
+            if (segment.entries.get(entry.user) != entry) {
+                return;
+            }
+            entry.messages = messages.toArray(new Message[0]);
+            entry.window = window;
+            entry.complete = entry.messages.length < window;
+            entry.loadedAt = clock.getAsLong();
+            segment.weight += entry.weight();
+            evict(segment);
+        }
+    }
+
+    /**
+     * Inserts a new message into the cached timelines of its author's followers. Authors with more followers than the
+     * cache can hold entries have their message checked against the cached entries instead, so that a celebrity
+     * posting does not go through millions of followers.
+     *
+     * @param message the new message
+     */
+    public void messagePosted(Message message) {
+        User author = message.getAuthor();
+        if (author.getFollowerCount() <= maxSegmentEntries * segments.length) {
+            PrimitiveIterator.OfInt followers = author.getFollowerIds().iterator(-1);
+            while (followers.hasNext()) {
+                User follower = author.getRegistry().get(followers.nextInt());
+                patch(segment(follower), follower, message);
+            }
+        } else {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    for (User user : new ArrayList<>(segment.entries.keySet())) {
+                        if (user.isFollowing(author)) {
+                            patch(segment, user, message);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the cached timeline of a user, whose followed users changed.
+     *
+     * @param user the user whose timeline changed
+     */
+    public void invalidate(User user) {
+        Segment segment = segment(user);
+        synchronized (segment) {
+            if (segment.remove(user)) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached timelines, including the ones being loaded
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public Stats getStats() {
+        int size = 0;
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+                weight += segment.weight;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), invalidations.sum(), size, weight);
+    }
+
+    private void patch(Segment segment, User user, Message message) {
+        synchronized (segment) {
+            Entry entry = segment.entries.get(user);
+            if (entry == null) {
+                return;
+            }
+            if (entry.messages == null) {
+                //Being loaded, and may have missed the message
+                segment.remove(user);
+                invalidations.increment();
+                return;
+            }
+            segment.weight -= entry.weight();
+            entry.insert(message);
+            segment.weight += entry.weight();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries of the segment, until it fits its share of the bounds.
+     * Must be called while holding the segment's lock.
+     */
+    private void evict(Segment segment) {
+        Iterator<Map.Entry<User, Entry>> eldest = segment.entries.entrySet().iterator();
+        while ((segment.entries.size() > maxSegmentEntries || segment.weight > maxSegmentWeight) && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            segment.weight -= entry.weight();
+            evictions.increment();
+        }
+    }
+
+    private Segment segment(User user) {
+        int hash = user.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * The cached head of a timeline. The messages are null while the timeline is being loaded
+     */
+    public static final class Entry {
+        private final User user;
+        private Message[] messages; //In reverse chronological order
+        private int window; //The maximum number of messages kept in the entry
+        private boolean complete;
+        private long loadedAt;
+
+        private Entry(User user) {
+            this.user = user;
+        }
+
+        private long weight() {
+            return messages == null ? 0 : 1 + messages.length;
+        }
+
+        /**
+         * @return the index of the first message with an identifier strictly lower than the given one
+         */
+        private int indexBefore(long before) {
+            int low = 0;
+            int high = messages.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (messages[middle].getId() >= before) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Inserts a message in order, dropping the oldest message once the window is full
+         */
+        private void insert(Message message) {
+            int position = indexBefore(message.getId() + 1);
+            if (position < messages.length && messages[position].getId() == message.getId()) {
+                return;
+            }
+            if (messages.length == window) {
+                if (position == window) {
+                    return;
+                }
+                complete = false;
+            }
+            int length = Math.min(messages.length + 1, window);
+            Message[] patched = new Message[length];
+            System.arraycopy(messages, 0, patched, 0, position);
+            patched[position] = message;
+            System.arraycopy(messages, position, patched, position + 1, length - position - 1);
+            messages = patched;
+        }
+    }
+
+    /**
+     * The cache counters since it was created, and its current size
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+        private final int size;
+        private final long weight;
+
+        private Stats(long hits, long misses, long evictions, long expirations, long invalidations, int size, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+    }
+
+    /**
+     * The entries of a segment, in access order, and their total weight. Guarded by the segment's monitor
+     */
+    private static final class Segment {
+        private final LinkedHashMap<User, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        private boolean remove(User user) {
+            Entry entry = entries.remove(user);
+            if (entry == null) {
+                return false;
+            }
+            weight -= entry.weight();
+            return true;
+        }
+    }
+}
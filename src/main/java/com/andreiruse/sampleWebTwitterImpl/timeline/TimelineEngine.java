@@ -0,0 +1,392 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.MessageLog;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+/**
+ * Precomputes the users' timelines, by pushing every new message into a bounded {@link TimelineInbox} of each of the author's followers (fan-out on write).
+ * <p>
+ * Pushing a message to millions of followers is expensive, so the engine works in a hybrid mode: messages by authors
+ * with more followers than the fan-out threshold are not pushed. Instead, they are read directly from the authors'
+ * walls, and merged in, when a timeline is requested (fan-out on read). Whether an author is fanned out on write or on
+ * read is decided for every message, on the follower count of its author when it is posted. While an author is fanned
+ * out on read, their whole wall is merged in, and their inbox entries are skipped. Once they are back under the
+ * threshold, the part of their wall up to the newest message they did not push is still merged in, until they have
+ * pushed an inbox capacity of messages since, and the inboxes would have evicted the older ones anyway. The messages
+ * both pushed and merged in from the wall are only returned once.
+ * <p>
+ * Following and posting can run concurrently, so an inbox may briefly hold messages of an author who has just been
+ * unfollowed. The inbox entries are therefore filtered on the current follow edges when reading, and purging the
+ * inbox on unfollow only reclaims the space.
+ * <p>
+ * The heads of the most requested timelines can also be kept in a {@link TimelineCache}, which the engine keeps up to
+ * date as messages are posted, and users followed or unfollowed.
+ * <p>
+ * Setting the threshold to {@link Integer#MAX_VALUE} pushes every message, while setting it to a negative value turns
+ * the engine into a pure fan-out on read.
+ * <p>
+ * When a page of a timeline merges in more walls than the parallel threshold, the walls are merged in parallel, on the
+ * common fork-join pool (see {@link WallMergeTask}). On a single processor, the walls are always merged sequentially.
+ */
+public class TimelineEngine {
+    public static final int DEFAULT_INBOX_CAPACITY = 800;
+    public static final int DEFAULT_FAN_OUT_THRESHOLD = 10_000;
+    /**
+     * Number of walls merged into a page from which the merge runs in parallel, on several processors. Below it, the
+     * tasks cost more than the merge they share (see TimelineAssemblyBenchmark).
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
+    private static final Predicate<User> ALL_AUTHORS = author -> true;
+
+    private final int inboxCapacity;
+    private final int fanOutThreshold;
+    private final TimelineCache cache; //Null when the timelines are not cached
+    private final int parallelThreshold;
+    private final ConcurrentMap<User, TimelineInbox> inboxes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<User, PulledPosts> pulledPosts = new ConcurrentHashMap<>(); //Of the authors fanned out on read since their last inbox capacity of messages
+
+    public TimelineEngine() {
+        this(DEFAULT_INBOX_CAPACITY, DEFAULT_FAN_OUT_THRESHOLD);
+    }
+
+    /**
+     * @param inboxCapacity   the maximum number of messages kept in each user's inbox
+     * @param fanOutThreshold the number of followers above which an author's messages are fanned out on read
+     */
+    public TimelineEngine(int inboxCapacity, int fanOutThreshold) {
+        this(inboxCapacity, fanOutThreshold, null);
+    }
+
+    /**
+     * @param inboxCapacity   the maximum number of messages kept in each user's inbox
+     * @param fanOutThreshold the number of followers above which an author's messages are fanned out on read
+     * @param cache           the cache of the timelines' heads, or null not to cache them
+     */
+    public TimelineEngine(int inboxCapacity, int fanOutThreshold, TimelineCache cache) {
+        this(inboxCapacity, fanOutThreshold, cache, defaultParallelThreshold());
+    }
+
+    /**
+     * @param inboxCapacity     the maximum number of messages kept in each user's inbox
+     * @param fanOutThreshold   the number of followers above which an author's messages are fanned out on read
+     * @param cache             the cache of the timelines' heads, or null not to cache them
+     * @param parallelThreshold the number of walls merged into a page from which they are merged in parallel
+     */
+    public TimelineEngine(int inboxCapacity, int fanOutThreshold, TimelineCache cache, int parallelThreshold) {
+        if (inboxCapacity <= 0) {
+            throw new IllegalArgumentException("The inbox capacity has to be positive, but was " + inboxCapacity);
+        }
+        this.inboxCapacity = inboxCapacity;
+        this.fanOutThreshold = fanOutThreshold;
+        this.cache = cache;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Pushes a message, which has already been added to its author's wall, to the inboxes of the author's followers.
+     *
+     * @param message the new message
+     */
+    public void messagePosted(Message message) {
+        User author = message.getAuthor();
+        if (isFannedOutOnRead(author)) {
+            pulledPosts.compute(author, (x, pulled) -> pulled == null ? new PulledPosts(message.getId()) : pulled.pulled(message.getId()));
+        } else {
+            PrimitiveIterator.OfInt followers = author.getFollowerIds().iterator(-1);
+            while (followers.hasNext()) {
+                inbox(author.getRegistry().get(followers.nextInt())).add(message);
+            }
+            if (pulledPosts.containsKey(author)) {
+                pulledPosts.computeIfPresent(author, (x, pulled) -> pulled.pushed(inboxCapacity) ? null : pulled);
+            }
+        }
+        if (cache != null) {
+            cache.messagePosted(message);
+        }
+    }
+
+    /**
+     * Back-fills the follower's inbox with the most recent messages of the newly followed user.
+     * The follow edge has to be recorded before calling this method, so that messages posted concurrently are not missed.
+     *
+     * @param follower the user who started following
+     * @param followed the user being followed
+     */
+    public void followed(User follower, User followed) {
+        if (!isFannedOutOnRead(followed)) {
+            inbox(follower).addAll(newest(followed.getWall(), inboxCapacity));
+        }
+        if (cache != null) {
+            cache.invalidate(follower);
+        }
+    }
+
+    /**
+     * Removes the messages of the unfollowed user from the follower's inbox.
+     * The follow edge has to be removed before calling this method.
+     *
+     * @param follower the user who stopped following
+     * @param followed the user being unfollowed
+     */
+    public void unfollowed(User follower, User followed) {
+        TimelineInbox inbox = inboxes.get(follower);
+        if (inbox != null) {
+            inbox.removeAuthor(followed);
+        }
+        if (cache != null) {
+            cache.invalidate(follower);
+        }
+    }
+
+    /**
+     * Assembles a page of the timeline of the given user: the messages posted by the followed users, in reverse chronological order.
+     * At most the inbox capacity of messages is kept for the authors that are fanned out on write.
+     * <p>
+     * The inbox and the walls of the authors fanned out on read are combined with a k-way merge, which stops as soon as the page is full.
+     * From the parallel threshold, the walls are first merged by fork-join tasks, each keeping the page's worth of newest messages.
+     * The followed users are read once, as a sorted array of identifiers, which the inbox entries are checked against.
+     * When the timelines are cached, the pages are served from the cache if possible, and the head of the timeline is
+     * cached when it is requested, unless the page is too large to be cached (see {@link TimelineCache#isCacheable(int)}).
+     *
+     * @param user   the user whose timeline is assembled
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @return the newest messages of the timeline
+     */
+    public List<Message> getTimeline(User user, long before, int limit) {
+        return getTimeline(user, before, limit, ALL_AUTHORS);
+    }
+
+    /**
+     * Assembles a page of the part of the timeline of the given user posted by some of the followed users, e.g. the
+     * ones stored in one shard of the data. The inbox only holds the messages pushed to this engine, so the authors
+     * are only checked before reading the walls of the authors fanned out on read.
+     *
+     * @param user    the user whose timeline is assembled
+     * @param before  only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit   the maximum number of messages to return
+     * @param authors the followed users whose walls may be merged in
+     * @return the newest messages of the timeline, by these authors
+     */
+    public List<Message> getTimeline(User user, long before, int limit, Predicate<User> authors) {
+        if (cache == null) {
+            return assemble(user, before, limit, authors);
+        }
+        List<Message> cached = cache.get(user, before, limit);
+        if (cached != null) {
+            return cached;
+        }
+        if (before != Long.MAX_VALUE || !cache.isCacheable(limit)) {
+            return assemble(user, before, limit, authors);
+        }
+
+        TimelineCache.Entry reservation = cache.reserve(user);
+        int window = cache.window(limit);
+        List<Message> head = assemble(user, Long.MAX_VALUE, window, authors);
+        cache.fill(reservation, head, window);
+        return head.size() > limit ? new ArrayList<>(head.subList(0, limit)) : head;
+    }
+
+    /**
+     * Lazily assembles the timeline of the given user. The walls of the authors fanned out on read are only read as far
+     * as the returned iterator is consumed.
+     *
+     * @param user          the user whose timeline is assembled
+     * @param before        only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param expectedCount the number of messages the caller intends to read, which bounds the number of messages read from the inbox upfront
+     * @return the messages of the timeline, in reverse chronological order
+     */
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount) {
+        return iterateTimeline(user, before, expectedCount, ALL_AUTHORS);
+    }
+
+    /**
+     * Lazily assembles the part of the timeline of the given user posted by some of the followed users (see
+     * {@link #getTimeline(User, long, int, Predicate)}).
+     *
+     * @param user          the user whose timeline is assembled
+     * @param before        only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param expectedCount the number of messages the caller intends to read, which bounds the number of messages read from the inbox upfront
+     * @param authors       the followed users whose walls may be merged in
+     * @return the messages of the timeline by these authors, in reverse chronological order
+     */
+    public Iterator<Message> iterateTimeline(User user, long before, int expectedCount, Predicate<User> authors) {
+        int[] following = user.getFollowingIds().toArray();
+        PulledWalls walls = pulledWalls(user, following, before, authors);
+        List<Iterator<Message>> streams = new ArrayList<>();
+        addInbox(streams, user, following, walls, before, expectedCount);
+        for (int i = 0; i < walls.size(); i++) {
+            streams.add(new WallCursor(walls.walls.get(i), walls.befores[i]));
+        }
+        return MessageMerger.merge(streams);
+    }
+
+    /**
+     * Assembles a page of a timeline, merging the walls in parallel above the parallel threshold.
+     */
+    private List<Message> assemble(User user, long before, int limit, Predicate<User> authors) {
+        int[] following = user.getFollowingIds().toArray();
+        PulledWalls walls = pulledWalls(user, following, before, authors);
+        List<Iterator<Message>> streams = new ArrayList<>();
+        addInbox(streams, user, following, walls, before, limit);
+        if (walls.size() >= parallelThreshold) {
+            streams.add(ForkJoinPool.commonPool().invoke(new WallMergeTask(walls.walls, walls.befores, 0, walls.size(), limit)).iterator());
+        } else {
+            for (int i = 0; i < walls.size(); i++) {
+                streams.add(new WallCursor(walls.walls.get(i), walls.befores[i]));
+            }
+        }
+        return MessageMerger.newest(streams, limit);
+    }
+
+    /**
+     * Adds the inbox of the user, leaving out the entries of the authors unfollowed since, or whose whole wall is merged in.
+     */
+    private void addInbox(List<Iterator<Message>> streams, User user, int[] following, PulledWalls walls, long before, int expectedCount) {
+        TimelineInbox inbox = inboxes.get(user);
+        if (inbox != null) {
+            streams.add(inbox.newest(before, expectedCount,
+                    author -> Arrays.binarySearch(following, author.getId()) >= 0 && !walls.isWhole(author.getId())).iterator());
+        }
+    }
+
+    /**
+     * @return the walls of the followed authors fanned out on read, whole, and of the ones who were recently, up to
+     * the newest message they did not push
+     */
+    private PulledWalls pulledWalls(User user, int[] following, long before, Predicate<User> authors) {
+        PulledWalls walls = new PulledWalls();
+        for (int id : following) {
+            User followed = user.getRegistry().get(id);
+            if (!authors.test(followed)) {
+                continue;
+            }
+            if (isFannedOutOnRead(followed)) {
+                walls.add(followed.getWall(), before, id);
+            } else {
+                PulledPosts pulled = pulledPosts.get(followed);
+                if (pulled != null) {
+                    walls.add(followed.getWall(), Math.min(before, pulled.newestId + 1), -1);
+                }
+            }
+        }
+        return walls;
+    }
+
+    public int getInboxCapacity() {
+        return inboxCapacity;
+    }
+
+    public int getFanOutThreshold() {
+        return fanOutThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @return {@link #DEFAULT_PARALLEL_THRESHOLD}, or {@link Integer#MAX_VALUE} (never in parallel) on a single processor
+     */
+    public static int defaultParallelThreshold() {
+        return Runtime.getRuntime().availableProcessors() > 1 ? DEFAULT_PARALLEL_THRESHOLD : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the cache of the timelines' heads, or null if they are not cached
+     */
+    public TimelineCache getCache() {
+        return cache;
+    }
+
+    private boolean isFannedOutOnRead(User author) {
+        return author.getFollowerCount() > fanOutThreshold;
+    }
+
+    private TimelineInbox inbox(User user) {
+        return inboxes.computeIfAbsent(user, x -> new TimelineInbox(inboxCapacity));
+    }
+
+    /**
+     * The newest message an author posted while fanned out on read, and the number of messages they pushed since.
+     * Only updated in the atomic operations of the map holding it.
+     */
+    private static final class PulledPosts {
+        private volatile long newestId;
+        private int pushedSince;
+
+        private PulledPosts(long newestId) {
+            this.newestId = newestId;
+        }
+
+        private PulledPosts pulled(long id) {
+            newestId = Math.max(newestId, id);
+            pushedSince = 0;
+            return this;
+        }
+
+        /**
+         * @return true once the author has pushed an inbox capacity of messages since
+         */
+        private boolean pushed(int inboxCapacity) {
+            return ++pushedSince >= inboxCapacity;
+        }
+    }
+
+    /**
+     * The walls merged into a timeline, with the identifier each of them is read below, and the sorted identifiers of
+     * the authors whose whole wall is merged in
+     */
+    private static final class PulledWalls {
+        private final List<MessageLog> walls = new ArrayList<>();
+        private long[] befores = new long[4];
+        private int[] wholeAuthors = new int[4];
+        private int wholeCount;
+
+        private void add(MessageLog wall, long before, int wholeAuthor) {
+            if (walls.size() == befores.length) {
+                befores = Arrays.copyOf(befores, 2 * befores.length);
+            }
+            befores[walls.size()] = before;
+            walls.add(wall);
+            if (wholeAuthor >= 0) {
+                if (wholeCount == wholeAuthors.length) {
+                    wholeAuthors = Arrays.copyOf(wholeAuthors, 2 * wholeCount);
+                }
+                wholeAuthors[wholeCount++] = wholeAuthor;
+            }
+        }
+
+        private int size() {
+            return walls.size();
+        }
+
+        private boolean isWhole(int author) {
+            return Arrays.binarySearch(wholeAuthors, 0, wholeCount, author) >= 0;
+        }
+    }
+
+    /**
+     * Walls are kept in chronological order, so the newest messages are at the end.
+     */
+    private static List<Message> newest(MessageLog wall, int limit) {
+        List<Message> messages = new ArrayList<>();
+        WallCursor cursor = new WallCursor(wall, Long.MAX_VALUE);
+        while (cursor.hasNext() && messages.size() < limit) {
+            messages.add(cursor.next());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,217 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, per-user inbox of message references, used by the {@link TimelineEngine} to precompute timelines.
+ * <p>
+ * The messages are kept in a ring buffer, in chronological (identifier) order. Messages usually arrive in chronological order, so
+ * they are appended at the tail; late arrivals are moved back into place. Once the inbox is full, adding a message
+ * evicts the oldest one. Adding a message that is already in the inbox has no effect.
+ * <p>
+ * Only the identifier and the author of each message are kept, in two parallel arrays, rather than the message itself:
+ * the messages are stored once, on their authors' walls, and looked up there when the inbox is read. The arrays start
+ * small, and are doubled as needed up to the capacity, so that the inboxes of the many users who receive few messages
+ * stay small.
+ * <p>
+ * All methods hold the lock of the inbox, which is only shared between the threads posting to, and reading from, the
+ * same timeline. It is a {@link ReentrantLock} rather than a monitor, so that it does not pin the carrier of a virtual
+ * thread waiting for it.
+ */
+public class TimelineInbox {
+    private static final int INITIAL_LENGTH = 8;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] ids;
+    private User[] authors;
+    private int head; //Position of the oldest message in the ring
+    private int size;
+
+    public TimelineInbox(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The inbox capacity has to be positive, but was " + capacity);
+        }
+        this.capacity = capacity;
+        this.ids = new long[Math.min(capacity, INITIAL_LENGTH)];
+        this.authors = new User[ids.length];
+    }
+
+    /**
+     * Adds a message to the inbox, keeping the chronological order.
+     *
+     * @param message the message to add
+     * @return true if the message has been added, false if it was already present, or if it is older than every message in a full inbox
+     */
+    public boolean add(Message message) {
+        lock.lock();
+        try {
+            return insert(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds several messages to the inbox, keeping the chronological order.
+     *
+     * @param messages the messages to add
+     */
+    public void addAll(Collection<Message> messages) {
+        lock.lock();
+        try {
+            for (Message message : messages) {
+                insert(message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the messages of an author, keeping the remaining ones in chronological order.
+     *
+     * @param author the author whose messages are removed
+     * @return the number of messages removed
+     */
+    public int removeAuthor(User author) {
+        lock.lock();
+        try {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!authors[slot(i)].equals(author)) {
+                    move(i, kept++);
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                authors[slot(i)] = null;
+            }
+            int removed = size - kept;
+            size = kept;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists the newest messages in the inbox, in reverse chronological order. The references are collected while
+     * holding the inbox's lock, and the messages are then looked up on their authors' walls without it.
+     *
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     * @param limit  the maximum number of messages to return
+     * @param filter only the messages of the authors matching this filter are returned
+     * @return the newest messages matching the filter
+     */
+    public List<Message> newest(long before, int limit, Predicate<User> filter) {
+        long[] selectedIds;
+        User[] selectedAuthors;
+        int count = 0;
+        lock.lock();
+        try {
+            selectedIds = new long[Math.min(limit, size)];
+            selectedAuthors = new User[selectedIds.length];
+            for (int i = size - 1; i >= 0 && count < selectedIds.length; i--) {
+                int slot = slot(i);
+                if (ids[slot] < before && filter.test(authors[slot])) {
+                    selectedIds[count] = ids[slot];
+                    selectedAuthors[count++] = authors[slot];
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = selectedAuthors[i].getWall().find(selectedIds[i]);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Doubles the length of the ring, up to the capacity, moving the oldest message to the start of the arrays.
+     */
+    private void grow() {
+        int length = Math.min(capacity, 2 * ids.length);
+        long[] grownIds = new long[length];
+        User[] grownAuthors = new User[length];
+        for (int i = 0; i < size; i++) {
+            grownIds[i] = ids[slot(i)];
+            grownAuthors[i] = authors[slot(i)];
+        }
+        ids = grownIds;
+        authors = grownAuthors;
+        head = 0;
+    }
+
+    /**
+     * Adds a message, with the lock held
+     */
+    private boolean insert(Message message) {
+        long id = message.getId();
+        int position = size;
+        for (int i = size - 1; i >= 0; i--) {
+            long current = ids[slot(i)];
+            if (current == id) {
+                return false;
+            }
+            if (current < id) {
+                break;
+            }
+            position = i;
+        }
+
+        if (size == ids.length && size < capacity) {
+            grow();
+        }
+        if (size == ids.length) {
+            if (position == 0) {
+                return false;
+            }
+            authors[head] = null;
+            head = (head + 1) % ids.length;
+            size--;
+            position--;
+        }
+        for (int i = size; i > position; i--) {
+            move(i - 1, i);
+        }
+        ids[slot(position)] = id;
+        authors[slot(position)] = message.getAuthor();
+        size++;
+        return true;
+    }
+
+    private int slot(int index) {
+        return (head + index) % ids.length;
+    }
+
+    private void move(int from, int to) {
+        ids[slot(to)] = ids[slot(from)];
+        authors[slot(to)] = authors[slot(from)];
+    }
+}
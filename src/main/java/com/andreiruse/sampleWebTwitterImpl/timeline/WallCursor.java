@@ -0,0 +1,59 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.MessageLog;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a user's wall in reverse chronological order, without copying or sorting it.
+ * <p>
+ * Walls are kept in chronological order, so the iteration starts at the end of the wall, and the starting point of a
+ * page is found with a binary search on the message identifiers, which reads them without creating any message view.
+ * <p>
+ * The cursor iterates over a snapshot of the wall, taken when it is created: messages appended afterwards are not returned.
+ */
+public class WallCursor implements Iterator<Message> {
+    private final MessageLog wall;
+    private int index;
+
+    /**
+     * @param wall   the wall to iterate over, in chronological order
+     * @param before only messages with an identifier strictly lower than this one are returned. Long.MAX_VALUE to start from the newest message
+     */
+    public WallCursor(MessageLog wall, long before) {
+        this.wall = wall;
+        this.index = before == Long.MAX_VALUE ? wall.size() - 1 : firstIndexNotBelow(wall, before) - 1;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index >= 0;
+    }
+
+    @Override
+    public Message next() {
+        if (index < 0) {
+            throw new NoSuchElementException();
+        }
+        return wall.get(index--);
+    }
+
+    /**
+     * Binary search for the first message with an identifier greater than, or equal to, the given one.
+     */
+    private static int firstIndexNotBelow(MessageLog wall, long id) {
+        int low = 0;
+        int high = wall.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (wall.idAt(middle) < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
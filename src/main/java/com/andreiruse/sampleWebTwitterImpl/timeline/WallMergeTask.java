@@ -0,0 +1,65 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.MessageLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Merges the newest messages of many walls, in parallel: the walls are split in halves until at most
+ * {@link #LEAF_SIZE} of them are left, each leaf merges its walls into a sorted run of at most limit messages, and the
+ * runs are merged pairwise on the way back up, keeping the limit newest messages.
+ * <p>
+ * Every task reads at most limit messages per run, so the total work stays close to the sequential merge, while the
+ * part growing with the number of walls (opening a cursor on each wall, and building the heap) is split across the
+ * threads of the fork-join pool.
+ */
+class WallMergeTask extends RecursiveTask<List<Message>> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of walls below which a task merges them itself, rather than splitting them
+     */
+    static final int LEAF_SIZE = 256;
+
+    private final List<MessageLog> walls;
+    private final long[] befores;
+    private final int from;
+    private final int to;
+    private final int limit;
+
+    /**
+     * @param walls   the walls to merge
+     * @param befores for every wall, only its messages with an identifier strictly lower than this one are returned
+     * @param from    the index of the first wall merged by this task
+     * @param to      the index after the last wall merged by this task
+     * @param limit   the maximum number of messages to return
+     */
+    WallMergeTask(List<MessageLog> walls, long[] befores, int from, int to, int limit) {
+        this.walls = walls;
+        this.befores = befores;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    @Override
+    protected List<Message> compute() {
+        if (to - from <= LEAF_SIZE) {
+            List<Iterator<Message>> streams = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                streams.add(new WallCursor(walls.get(i), befores[i]));
+            }
+            return MessageMerger.newest(streams, limit);
+        }
+        int middle = (from + to) >>> 1;
+        WallMergeTask firstHalf = new WallMergeTask(walls, befores, from, middle, limit);
+        firstHalf.fork();
+        List<Message> secondRun = new WallMergeTask(walls, befores, middle, to, limit).compute();
+        return MessageMerger.newest(Arrays.asList(firstHalf.join().iterator(), secondRun.iterator()), limit);
+    }
+}
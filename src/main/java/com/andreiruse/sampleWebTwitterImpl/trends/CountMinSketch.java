@@ -0,0 +1,76 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate counts of a stream of keys, in a fixed amount of memory: a matrix of counters, with one row per hash
+ * function. Adding a key increments one counter per row, and the estimate of a key is the lowest of its counters.
+ * <p>
+ * Collisions only add to the counters, so the estimate is never below the true count, and with a width w and a depth d
+ * it exceeds it by more than e/w of the total count with a probability of at most e^-d.
+ * <p>
+ * The counters are atomic, so keys can be added from several threads without locking.
+ */
+class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width the number of counters per row, a power of two
+     * @param depth the number of rows
+     */
+    CountMinSketch(int width, int depth) {
+        if (Integer.bitCount(width) != 1 || depth <= 0) {
+            throw new IllegalArgumentException("The width has to be a power of two, and the depth positive, but were " + width + " and " + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    void add(String key) {
+        add(hash(key));
+    }
+
+    void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int row = 0; row < depth; row++) {
+            counters.incrementAndGet(row * width + ((h1 + row * h2) & (width - 1)));
+        }
+    }
+
+    long estimate(String key) {
+        return estimate(hash(key));
+    }
+
+    /**
+     * @param hash the {@link #hash(String)} of the key, which can be computed once for several sketches
+     */
+    long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * width + ((h1 + row * h2) & (width - 1))));
+        }
+        return estimate;
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters, followed by a final mix. The rows use combinations of its two halves, as
+     * independent hash functions.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,98 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Space-Saving summary of a stream of keys: it monitors a fixed number of keys, and any key occurring more than
+ * 1/capacity of the time is guaranteed to be among them. A new key replaces the monitored key with the lowest count.
+ * <p>
+ * The keys are kept in a min-heap ordered by count, so that adding a key takes a logarithmic time. Only the monitored
+ * keys are used by the {@link TrendTracker}, as candidates: their counts are then estimated by a {@link CountMinSketch}.
+ * <p>
+ * All methods are synchronized on the summary.
+ */
+class SpaceSaving {
+    private final String[] keys;
+    private final long[] counts;
+    private final Map<String, Integer> positions; //Position of each key in the heap
+    private int size;
+
+    SpaceSaving(int capacity) {
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.positions = new HashMap<>(2 * capacity);
+    }
+
+    synchronized void add(String key) {
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+        } else if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = 1;
+            positions.put(key, size);
+            siftUp(size++);
+        } else {
+            //Replaces the key with the lowest count, inheriting its count
+            positions.remove(keys[0]);
+            keys[0] = key;
+            counts[0]++;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds all the monitored keys to a collection, including the ones tied at the lowest count: when many keys are
+     * used as often, these are most of the keys, and they are ranked by their estimated counts rather than left out.
+     */
+    synchronized void collectKeys(Collection<String> collection) {
+        for (int i = 0; i < size; i++) {
+            collection.add(keys[i]);
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+}
@@ -0,0 +1,28 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+/**
+ * POJO representing a trending hashtag, along with the (estimated) number of messages tagged with it over the requested
+ * window.
+ */
+public class Trend {
+    private final String hashtag;
+    private final long count;
+
+    public Trend(String hashtag, long count) {
+        this.hashtag = hashtag;
+        this.count = count;
+    }
+
+    public String getHashtag() {
+        return hashtag;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return hashtag + "=" + count;
+    }
+}
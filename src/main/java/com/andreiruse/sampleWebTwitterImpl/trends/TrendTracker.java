@@ -0,0 +1,155 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the hashtags of the posted messages over a sliding window, in a bounded amount of memory, to list the most
+ * used ones (the trends).
+ * <p>
+ * The window is split into buckets of a fixed duration (one minute by default), kept in a ring: the bucket of a given
+ * time replaces the one a full window older, so the counts expire bucket by bucket. Every bucket holds:
+ * * a {@link CountMinSketch}, estimating the count of any hashtag within the bucket
+ * * {@link SpaceSaving} summaries, monitoring the most used hashtags within the bucket, which are the trend candidates
+ * <p>
+ * The trends over the last n buckets are the candidates of these buckets, ranked by the sum of their estimated counts.
+ * Both structures have a fixed size, so the memory does not depend on the number of messages or hashtags.
+ * <p>
+ * Recording a hashtag takes no global lock: the sketch counters are atomic, and the summaries are striped by thread, so
+ * that concurrent posters mostly update distinct summaries. A bucket is only replaced once per bucket duration, with a
+ * compare-and-set.
+ */
+public class TrendTracker {
+    public static final long DEFAULT_BUCKET_MILLIS = 60_000;
+    public static final int DEFAULT_BUCKET_COUNT = 60;
+
+    static final int SKETCH_WIDTH = 2048;
+    static final int SKETCH_DEPTH = 4;
+    static final int STRIPES = 16;
+    static final int CANDIDATES_PER_STRIPE = 32;
+
+    private final long bucketMillis;
+    private final Clock clock;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    public TrendTracker() {
+        this(DEFAULT_BUCKET_COUNT, DEFAULT_BUCKET_MILLIS, Clock.systemUTC());
+    }
+
+    /**
+     * @param bucketCount  the number of buckets, so the longest window is bucketCount * bucketMillis
+     * @param bucketMillis the duration of a bucket, which is the granularity of the window
+     * @param clock        the clock telling which buckets are current
+     */
+    public TrendTracker(int bucketCount, long bucketMillis, Clock clock) {
+        if (bucketCount <= 0 || bucketMillis <= 0) {
+            throw new IllegalArgumentException("The bucket count and duration have to be positive, but were " + bucketCount + " and " + bucketMillis);
+        }
+        this.bucketMillis = bucketMillis;
+        this.clock = clock;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Counts a use of a hashtag. Uses older than the whole window are ignored, and uses in the future (e.g. because of
+     * a clock skew between nodes) are counted now.
+     *
+     * @param hashtag         the hashtag, as it should be listed
+     * @param timestampMillis when the hashtag was used
+     */
+    public void record(String hashtag, long timestampMillis) {
+        long current = clock.millis() / bucketMillis;
+        long epoch = Math.min(timestampMillis / bucketMillis, current);
+        if (epoch <= current - buckets.length()) {
+            return;
+        }
+        Bucket bucket = bucket(epoch);
+        if (bucket != null) {
+            bucket.sketch.add(hashtag);
+            bucket.candidates[stripe()].add(hashtag);
+        }
+    }
+
+    /**
+     * Lists the most used hashtags over the last buckets, the current one included.
+     *
+     * @param windowMillis the duration of the window, rounded up to whole buckets, and capped by the longest window
+     * @param limit        the maximum number of hashtags to return
+     * @return the most used hashtags, with their estimated counts, from the most used
+     */
+    public List<Trend> top(long windowMillis, int limit) {
+        long current = clock.millis() / bucketMillis;
+        long bucketCount = Math.min(buckets.length(), Math.max(1, (windowMillis + bucketMillis - 1) / bucketMillis));
+
+        List<Bucket> window = new ArrayList<>();
+        Set<String> candidates = new HashSet<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.epoch > current - bucketCount && bucket.epoch <= current) {
+                window.add(bucket);
+                for (SpaceSaving stripe : bucket.candidates) {
+                    stripe.collectKeys(candidates);
+                }
+            }
+        }
+
+        List<Trend> trends = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            long hash = CountMinSketch.hash(candidate);
+            long count = 0;
+            for (Bucket bucket : window) {
+                count += bucket.sketch.estimate(hash);
+            }
+            trends.add(new Trend(candidate, count));
+        }
+        trends.sort(Comparator.comparingLong(Trend::getCount).reversed().thenComparing(Trend::getHashtag));
+        return trends.size() > limit ? new ArrayList<>(trends.subList(0, limit)) : trends;
+    }
+
+    /**
+     * @return the longest window that can be listed
+     */
+    public long getMaxWindowMillis() {
+        return buckets.length() * bucketMillis;
+    }
+
+    /**
+     * @return the bucket of the given epoch, replacing an older one, or null if it has already been replaced by a newer one
+     */
+    private Bucket bucket(long epoch) {
+        int slot = (int) Math.floorMod(epoch, (long) buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.epoch >= epoch) {
+                return bucket.epoch == epoch ? bucket : null;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+    }
+
+    private static class Bucket {
+        private final long epoch;
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+        private final SpaceSaving[] candidates = new SpaceSaving[STRIPES];
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+            for (int i = 0; i < STRIPES; i++) {
+                candidates[i] = new SpaceSaving(CANDIDATES_PER_STRIPE);
+            }
+        }
+    }
+}
@@ -11,6 +11,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -136,6 +138,163 @@ public class ServerRunnerIntegrationTest {
         Response getTimelineUser1Response2 = client.newCall(getTimelineUser1Request2).execute();
         assertEquals(HttpStatus.OK.value(), getTimelineUser1Response2.code());
         assertTrue(getTimelineUser1Response2.body().string().startsWith("[{\"username\":\"testUser2\",\"content\":\"Test message 2\",\"createdAt\":{"));
+
+        //Second user lists followers, check the first user is listed
+        Request getFollowersUser2Request = new Request.Builder()
+                .url("http://localhost:8080/users/testUser2/followers/?limit=1")
+                .build();
+        Response getFollowersUser2Response = client.newCall(getFollowersUser2Request).execute();
+        assertEquals(HttpStatus.OK.value(), getFollowersUser2Response.code());
+        assertEquals("testUser1", getFollowersUser2Response.header("X-Next-Cursor"));
+        assertTrue(getFollowersUser2Response.body().string().startsWith("[{\"username\":\"testUser1\""));
+
+        //Request the next page of followers, check it is empty
+        Request getFollowersUser2Request2 = new Request.Builder()
+                .url("http://localhost:8080/users/testUser2/followers/?limit=1&after=testUser1")
+                .build();
+        Response getFollowersUser2Response2 = client.newCall(getFollowersUser2Request2).execute();
+        assertEquals(HttpStatus.OK.value(), getFollowersUser2Response2.code());
+        assertEquals("[]", getFollowersUser2Response2.body().string());
+
+        //Bulk create users, as newline-delimited JSON. The duplicate username is rejected
+        RequestBody bulkUsersRequestBody = RequestBody.create(MediaType.parse("application/x-ndjson"), "{\"username\":\"bulkUser1\"}\n{\"username\":\"bulkUser2\"}\n{\"username\":\"testUser1\"}\n");
+        Request bulkUsersRequest = new Request.Builder()
+                .url("http://localhost:8080/bulk/users")
+                .post(bulkUsersRequestBody)
+                .build();
+        Response bulkUsersResponse = client.newCall(bulkUsersRequest).execute();
+        assertEquals(HttpStatus.OK.value(), bulkUsersResponse.code());
+        assertEquals("[{\"index\":0,\"status\":201},{\"index\":1,\"status\":201},{\"index\":2,\"status\":400}]", bulkUsersResponse.body().string());
+
+        //Bulk follow, as a JSON array. The unknown user is rejected, and the repeated follow is reported as already recorded
+        RequestBody bulkFollowsRequestBody = RequestBody.create(MediaType.parse("application/json"), "[{\"username\":\"bulkUser1\",\"who\":\"bulkUser2\"},{\"username\":\"bulkUser1\",\"who\":\"missingUser\"},{\"username\":\"bulkUser1\",\"who\":\"bulkUser2\"}]");
+        Request bulkFollowsRequest = new Request.Builder()
+                .url("http://localhost:8080/bulk/follows")
+                .post(bulkFollowsRequestBody)
+                .build();
+        Response bulkFollowsResponse = client.newCall(bulkFollowsRequest).execute();
+        assertEquals(HttpStatus.OK.value(), bulkFollowsResponse.code());
+        assertEquals("[{\"index\":0,\"status\":201},{\"index\":1,\"status\":400},{\"index\":2,\"status\":200}]", bulkFollowsResponse.body().string());
+
+        //Bulk post messages, then check the timeline of the follower
+        RequestBody bulkMessagesRequestBody = RequestBody.create(MediaType.parse("application/json"), "[{\"username\":\"bulkUser2\",\"messageBody\":\"Bulk message\"},{\"username\":\"missingUser\",\"messageBody\":\"Lost message\"}]");
+        Request bulkMessagesRequest = new Request.Builder()
+                .url("http://localhost:8080/bulk/messages")
+                .post(bulkMessagesRequestBody)
+                .build();
+        Response bulkMessagesResponse = client.newCall(bulkMessagesRequest).execute();
+        assertEquals(HttpStatus.OK.value(), bulkMessagesResponse.code());
+        assertEquals("[{\"index\":0,\"status\":201},{\"index\":1,\"status\":404}]", bulkMessagesResponse.body().string());
+
+        Request getTimelineBulkUser1Request = new Request.Builder()
+                .url("http://localhost:8080/users/bulkUser1/timeline")
+                .build();
+        Response getTimelineBulkUser1Response = client.newCall(getTimelineBulkUser1Request).execute();
+        assertEquals(HttpStatus.OK.value(), getTimelineBulkUser1Response.code());
+        assertTrue(getTimelineBulkUser1Response.body().string().startsWith("[{\"username\":\"bulkUser2\",\"content\":\"Bulk message\""));
+
+        //Post more messages than a default page, then check that the whole wall is returned without parameters, and a page with a cursor
+        StringBuilder manyMessages = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            manyMessages.append("{\"username\":\"bulkUser2\",\"messageBody\":\"Message ").append(i).append("\"}\n");
+        }
+        Request bulkManyMessagesRequest = new Request.Builder()
+                .url("http://localhost:8080/bulk/messages")
+                .post(RequestBody.create(MediaType.parse("application/x-ndjson"), manyMessages.toString()))
+                .build();
+        assertEquals(HttpStatus.OK.value(), client.newCall(bulkManyMessagesRequest).execute().code());
+
+        Request getWholeWallRequest = new Request.Builder()
+                .url("http://localhost:8080/users/bulkUser2/wall")
+                .build();
+        Response getWholeWallResponse = client.newCall(getWholeWallRequest).execute();
+        assertEquals(HttpStatus.OK.value(), getWholeWallResponse.code());
+        assertNull(getWholeWallResponse.header("X-Next-Cursor"));
+        assertEquals(151, getWholeWallResponse.body().string().split("\"username\"", -1).length - 1);
+
+        Request getWallPageRequest = new Request.Builder()
+                .url("http://localhost:8080/users/bulkUser2/wall?before=" + Long.MAX_VALUE)
+                .build();
+        Response getWallPageResponse = client.newCall(getWallPageRequest).execute();
+        assertEquals(HttpStatus.OK.value(), getWallPageResponse.code());
+        assertNotNull(getWallPageResponse.header("X-Next-Cursor"));
+        assertEquals(100, getWallPageResponse.body().string().split("\"username\"", -1).length - 1);
+
+        //Search the posted messages, by word
+        Request searchRequest = new Request.Builder()
+                .url("http://localhost:8080/search?q=bulk+MESSAGE")
+                .build();
+        Response searchResponse = client.newCall(searchRequest).execute();
+        assertEquals(HttpStatus.OK.value(), searchResponse.code());
+        assertTrue(searchResponse.body().string().startsWith("[{\"username\":\"bulkUser2\",\"content\":\"Bulk message\""));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), httpGetStatusCode("http://localhost:8080/search?q=%23"));
+
+        //Post a tagged message, check it trends
+        Request postTaggedMessageRequest = new Request.Builder()
+                .url("http://localhost:8080/message")
+                .post(RequestBody.create(MediaType.parse("application/json"), "{ \"username\" : \"bulkUser1\", \"messageBody\" : \"Tagged #Sample\"}"))
+                .build();
+        assertEquals(HttpStatus.CREATED.value(), client.newCall(postTaggedMessageRequest).execute().code());
+        Request getTrendsRequest = new Request.Builder()
+                .url("http://localhost:8080/trends?minutes=5")
+                .build();
+        Response getTrendsResponse = client.newCall(getTrendsRequest).execute();
+        assertEquals(HttpStatus.OK.value(), getTrendsResponse.code());
+        assertEquals("[{\"hashtag\":\"#sample\",\"count\":1}]", getTrendsResponse.body().string());
+
+        //Stream the timeline of the first user, as newline-delimited JSON
+        Request streamTimelineUser1Request = new Request.Builder()
+                .url("http://localhost:8080/users/testUser1/timeline")
+                .header("Accept", "application/x-ndjson")
+                .build();
+        Response streamTimelineUser1Response = client.newCall(streamTimelineUser1Request).execute();
+        assertEquals(HttpStatus.OK.value(), streamTimelineUser1Response.code());
+        assertTrue(streamTimelineUser1Response.header("Content-Type").startsWith("application/x-ndjson"));
+        String streamedTimeline = streamTimelineUser1Response.body().string();
+        assertTrue(streamedTimeline.startsWith("{\"username\":\"testUser2\",\"content\":\"Test message 2\",\"createdAt\":{"));
+        assertTrue(streamedTimeline.endsWith("}\n"));
+
+        //Following the same user twice has no effect
+        Request user1FollowsUser2Request2 = new Request.Builder()
+                .url("http://localhost:8080/users/testUser1/follow/testUser2")
+                .post(RequestBody.create(MediaType.parse("application/json"), ""))
+                .build();
+        Response user1FollowsUser2Response2 = client.newCall(user1FollowsUser2Request2).execute();
+        assertEquals(HttpStatus.OK.value(), user1FollowsUser2Response2.code());
+
+        //Bulk user unfollows, check the timeline is now empty
+        Request bulkUser1UnfollowsRequest = new Request.Builder()
+                .url("http://localhost:8080/users/bulkUser1/follow/bulkUser2")
+                .delete()
+                .build();
+        Response bulkUser1UnfollowsResponse = client.newCall(bulkUser1UnfollowsRequest).execute();
+        assertEquals(HttpStatus.OK.value(), bulkUser1UnfollowsResponse.code());
+
+        Request getTimelineBulkUser1Request2 = new Request.Builder()
+                .url("http://localhost:8080/users/bulkUser1/timeline")
+                .build();
+        Response getTimelineBulkUser1Response2 = client.newCall(getTimelineBulkUser1Request2).execute();
+        assertEquals(HttpStatus.OK.value(), getTimelineBulkUser1Response2.code());
+        assertEquals("[]", getTimelineBulkUser1Response2.body().string());
+
+        //Check the timelines have been served through the cache
+        Request getTimelineCacheStatusRequest = new Request.Builder()
+                .url("http://localhost:8080/status/timeline-cache")
+                .build();
+        Response getTimelineCacheStatusResponse = client.newCall(getTimelineCacheStatusRequest).execute();
+        assertEquals(HttpStatus.OK.value(), getTimelineCacheStatusResponse.code());
+        assertTrue(getTimelineCacheStatusResponse.body().string().contains("\"invalidations\":"));
+
+        //Check the requests and the data store operations have been timed
+        Request getMetricsRequest = new Request.Builder()
+                .url("http://localhost:8080/metrics")
+                .build();
+        Response getMetricsResponse = client.newCall(getMetricsRequest).execute();
+        assertEquals(HttpStatus.OK.value(), getMetricsResponse.code());
+        assertTrue(getMetricsResponse.header("Content-Type").startsWith("text/plain"));
+        String metrics = getMetricsResponse.body().string();
+        assertTrue(metrics.contains("http_request_duration_seconds_count{handler=\"UsersController.getTimeline\"}"));
+        assertTrue(metrics.contains("datastore_operation_duration_seconds_count{operation=\"getTimeline\"}"));
     }
 
 
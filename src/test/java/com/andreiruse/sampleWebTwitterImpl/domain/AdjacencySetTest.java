@@ -0,0 +1,66 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the compressed sets of identifiers against a {@link TreeSet}, through many random changes, so that the
+ * pending changes get merged into the compressed blocks many times over.
+ */
+public class AdjacencySetTest {
+    @Test
+    public void testRandomChangesMatchTreeSet() {
+        Random random = new Random(42);
+        AdjacencySet set = new AdjacencySet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            //Mostly small identifiers, and a few large gaps, which take several bytes
+            int id = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                assertEquals(expected.add(id), set.add(id));
+            }
+            assertEquals(expected.size(), set.size());
+            if (i % 1000 == 0) {
+                assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+            }
+        }
+
+        for (int id = 0; id < 5_000; id++) {
+            assertEquals(expected.contains(id), set.contains(id));
+        }
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+    }
+
+    @Test
+    public void testIterationStartsAfterTheCursor() {
+        AdjacencySet set = new AdjacencySet();
+        for (int id = 0; id < 1_000; id += 3) {
+            set.add(id);
+        }
+        set.remove(300);
+        set.add(301);
+
+        assertEquals(List.of(301, 303, 306), take(set.iterator(300), 3));
+        assertEquals(List.of(301, 303), take(set.iterator(299), 2));
+        assertEquals(List.of(0, 3), take(set.iterator(-1), 2));
+        assertEquals(List.of(), take(set.iterator(999), 2));
+    }
+
+    private static List<Integer> take(PrimitiveIterator.OfInt iterator, int count) {
+        List<Integer> ids = new ArrayList<>();
+        while (ids.size() < count && iterator.hasNext()) {
+            ids.add(iterator.nextInt());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,78 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIdGeneratorTest {
+    private static final long NOW = MessageIdGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    @Test
+    public void testIdsEncodeTheCreationTime() {
+        MessageIdGenerator generator = new MessageIdGenerator(3, Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+
+        assertEquals(NOW, MessageIdGenerator.timestampMillis(generator.nextId()));
+    }
+
+    @Test
+    public void testIdsIncreaseWithinTheSameMillisecond() {
+        MessageIdGenerator generator = new MessageIdGenerator(MessageIdGenerator.MAX_NODE_ID, Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+
+        long previous = generator.nextId();
+        //More than the 4096 identifiers available per millisecond
+        for (int i = 0; i < 10_000; i++) {
+            long next = generator.nextId();
+            assertTrue(next > previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void testIdsIncreaseWhenTheClockGoesBackwards() {
+        MessageIdGenerator generator = new MessageIdGenerator(1, Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+        long beforeClockChange = generator.nextId();
+
+        MessageIdGenerator restarted = new MessageIdGenerator(1, Clock.fixed(Instant.ofEpochMilli(NOW - 5_000), ZoneOffset.UTC));
+        restarted.advancePast(beforeClockChange);
+
+        assertTrue(restarted.nextId() > beforeClockChange);
+    }
+
+    @Test
+    public void testIdsIncreasePastTheIdsOfOtherNodes() {
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC);
+        MessageIdGenerator low = new MessageIdGenerator(1, clock);
+        MessageIdGenerator high = new MessageIdGenerator(7, clock);
+        for (int i = 0; i < 5; i++) {
+            low.nextId();
+        }
+
+        //Past a greater node id, within the same millisecond
+        long highId = high.nextId();
+        low.advancePast(highId);
+        long lowId = low.nextId();
+        assertTrue(lowId > highId);
+        assertEquals(1, MessageIdGenerator.nodeId(lowId));
+
+        //Past a lower node id, taking over its timestamp and sequence
+        high.advancePast(lowId);
+        long nextHighId = high.nextId();
+        assertTrue(nextHighId > lowId);
+        assertEquals(7, MessageIdGenerator.nodeId(nextHighId));
+        assertEquals(NOW + 1, MessageIdGenerator.timestampMillis(nextHighId));
+
+        //Both nodes keep generating increasing identifiers
+        assertTrue(low.nextId() > lowId);
+        assertTrue(high.nextId() > nextHighId);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeIdIsBounded() {
+        new MessageIdGenerator(MessageIdGenerator.MAX_NODE_ID + 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the messages read back from the compact storage of the walls are the ones which were posted.
+ */
+public class MessageLogTest {
+    @Test
+    public void testMessagesAreReadBackAsPosted() {
+        User author = new User("alice");
+        List<Message> posted = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            //Multi-byte characters, and contents long enough for a two-byte length prefix
+            content.append(i % 3 == 0 ? "é" : i % 3 == 1 ? "😀" : "a");
+            Message message = new Message(author, content.toString());
+            author.addMessage(message);
+            posted.add(message);
+        }
+
+        MessageLog wall = author.getWall();
+        assertEquals(posted.size(), wall.size());
+        for (int i = 0; i < posted.size(); i++) {
+            Message read = wall.get(i);
+            assertEquals(posted.get(i).getId(), read.getId());
+            assertEquals(posted.get(i).getContent(), read.getContent());
+            assertSame(author, read.getAuthor());
+            assertEquals("alice", read.getUsername());
+            assertEquals(posted.get(i).getId(), wall.idAt(i));
+        }
+    }
+
+    @Test
+    public void testContentsAreOwnedByTheRegistryOfTheirAuthor() {
+        UserRegistry first = new UserRegistry();
+        UserRegistry second = new UserRegistry();
+        User alice = new User("alice");
+        User bob = new User("bob");
+        first.register(alice);
+        second.register(bob);
+
+        alice.addMessage(new Message(alice, "Stored in the first store"));
+        assertEquals(0, second.getSlab().capacity());
+        bob.addMessage(new Message(bob, "Stored in the second store"));
+        assertEquals("Stored in the first store", alice.getWall().get(0).getContent());
+        assertEquals("Stored in the second store", bob.getWall().get(0).getContent());
+        assertTrue(first.getSlab().capacity() > 0);
+        assertTrue(second.getSlab().capacity() > 0);
+    }
+
+    @Test
+    public void testFindLooksUpMessagesById() {
+        User author = new User("bob");
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Message message = new Message(author, "Message " + i);
+            author.addMessage(message);
+            posted.add(message);
+        }
+
+        for (Message message : posted) {
+            assertEquals(message.getContent(), author.getWall().find(message.getId()).getContent());
+        }
+        assertNull(author.getWall().find(posted.get(99).getId() + 1));
+        assertNull(author.getWall().find(0));
+    }
+}
@@ -0,0 +1,156 @@
+package com.andreiruse.sampleWebTwitterImpl.domain;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineEngine;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers the domain objects from many threads at once, with readers running alongside the writers, and checks that
+ * no write is lost, no reader fails, and that both sides of the follow graph agree once the writers are done.
+ */
+public class UserConcurrencyTest {
+    private static final int THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int USERS = 20;
+    private static final int OPERATIONS_PER_THREAD = 5_000;
+
+    @Test
+    public void testConcurrentPostsAreNotLost() throws Exception {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 5));
+        User[] users = users(dataStore);
+        for (User follower : users) {
+            for (User followed : users) {
+                if (follower != followed && ThreadLocalRandom.current().nextBoolean()) {
+                    dataStore.follow(follower, followed);
+                }
+            }
+        }
+
+        runWithReaders(dataStore, users, () -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                User author = users[i % USERS];
+                dataStore.addMessage(new Message(author, "Message " + i));
+            }
+        });
+
+        int posted = 0;
+        for (User user : users) {
+            posted += user.getWall().size();
+            long previousId = 0;
+            for (Message message : user.getWall()) {
+                assertSame(user, message.getAuthor());
+                //Even the messages posted at the same instant, from several threads, are in identifier order
+                assertTrue(message.getId() > previousId);
+                previousId = message.getId();
+            }
+        }
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, posted);
+    }
+
+    @Test
+    public void testConcurrentFollowsKeepBothEdgesConsistent() throws Exception {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 5));
+        User[] users = users(dataStore);
+
+        runWithReaders(dataStore, users, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                User follower = users[random.nextInt(USERS)];
+                User followed = users[random.nextInt(USERS)];
+                if (random.nextInt(3) == 0) {
+                    dataStore.unfollow(follower, followed);
+                } else {
+                    dataStore.follow(follower, followed);
+                }
+            }
+        });
+
+        for (User user : users) {
+            assertEquals(user.getFollowers().size(), user.getFollowerCount());
+            for (User follower : user.getFollowers()) {
+                assertTrue(follower.isFollowing(user));
+            }
+            for (User followed : user.getFollowing()) {
+                assertTrue(followed.getFollowerIds().contains(user.getId()));
+            }
+        }
+    }
+
+    private static User[] users(DataStore dataStore) {
+        User[] users = new User[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = new User("user" + i);
+            dataStore.storeUser(users[i]);
+        }
+        return users;
+    }
+
+    /**
+     * Runs the writer on every thread, while as many threads read the walls, timelines and followers, and rethrows the
+     * first failure of any of them.
+     */
+    private static void runWithReaders(DataStore dataStore, User[] users, Runnable writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2 * THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    writer.run();
+                    return null;
+                }));
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (writing.get()) {
+                        User user = users[random.nextInt(USERS)];
+                        assertReadable(dataStore.iterateWall(user, Long.MAX_VALUE));
+                        assertReadable(dataStore.iterateTimeline(user, Long.MAX_VALUE, 50));
+                        for (User follower : user.getFollowers()) {
+                            follower.getFollowing().size();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : writers) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            writing.set(false);
+            for (Future<?> future : readers) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads every message. The order is not checked, as the identifiers of messages posted at the same instant by the same author may be out of order
+     */
+    private static void assertReadable(Iterator<Message> messages) {
+        while (messages.hasNext()) {
+            assertTrue(messages.next().getId() > 0);
+        }
+    }
+}
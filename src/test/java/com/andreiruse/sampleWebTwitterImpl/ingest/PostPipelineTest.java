@@ -0,0 +1,95 @@
+package com.andreiruse.sampleWebTwitterImpl.ingest;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.metrics.Metrics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the pipeline applies every message, in order for each author, and rejects the messages once its queue
+ * is full, instead of blocking.
+ */
+public class PostPipelineTest {
+    @Test
+    public void testMessagesAreAppliedInOrder() throws Exception {
+        DataStore dataStore = new InMemoryDataStore();
+        List<User> authors = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            User author = new User("author-" + i);
+            dataStore.storeUser(author);
+            authors.add(author);
+        }
+
+        PostPipeline pipeline = new PostPipeline(dataStore, new Metrics(), 50_000, 64, 3);
+        List<CompletableFuture<Message>> applied = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            applied.add(pipeline.submit(new Message(authors.get(i % authors.size()), "Message " + i)));
+        }
+        pipeline.close();
+
+        for (CompletableFuture<Message> future : applied) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+        for (User author : authors) {
+            List<Long> ids = dataStore.getWall(author, Long.MAX_VALUE, 10_000).stream().map(Message::getId).collect(Collectors.toList());
+            assertEquals(2_000, ids.size());
+            for (int i = 1; i < ids.size(); i++) {
+                assertTrue(ids.get(i) < ids.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testFullQueueRejectsMessages() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch applying = new CountDownLatch(1);
+        DataStore dataStore = new InMemoryDataStore() {
+            @Override
+            public void addMessages(List<Message> messages) {
+                applying.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.addMessages(messages);
+            }
+        };
+        User author = new User("author");
+        dataStore.storeUser(author);
+
+        PostPipeline pipeline = new PostPipeline(dataStore, new Metrics(), 10, 4, 1);
+        CompletableFuture<Message> first = pipeline.submit(new Message(author, "Blocking"));
+        assertTrue(applying.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(new Message(author, "Queued " + i));
+        }
+        try {
+            pipeline.submit(new Message(author, "Rejected"));
+            fail("The queue is full");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, pipeline.getRejectedCount());
+        }
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        pipeline.close();
+        assertEquals(11, author.getWall().size());
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+}
@@ -0,0 +1,56 @@
+package com.andreiruse.sampleWebTwitterImpl.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValueWithinTheirPrecision() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long highest = Histogram.highestValue(Histogram.index(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 64);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testQuantiles() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000L, histogram.getMax());
+        assertEquals(5_000_000, histogram.getValueAtQuantile(0.5), 5_000_000 / 64.0);
+        assertEquals(9_900_000, histogram.getValueAtQuantile(0.99), 9_900_000 / 64.0);
+        assertEquals(10_000_000, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void testPrometheusFormat() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.latency("datastore_operation_duration_seconds", "Time spent", "operation", "getUser").record(2_000_000_000L);
+        metrics.gauge("timeline_cache_entries", "Cached timelines", "gauge", () -> 3);
+
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        String text = writer.toString();
+
+        assertTrue(text.contains("# TYPE datastore_operation_duration_seconds summary\n"));
+        assertTrue(text.contains("datastore_operation_duration_seconds{operation=\"getUser\",quantile=\"0.5\"} "));
+        assertTrue(text.contains("datastore_operation_duration_seconds_sum{operation=\"getUser\"} 2.0\n"));
+        assertTrue(text.contains("datastore_operation_duration_seconds_count{operation=\"getUser\"} 1.0\n"));
+        assertTrue(text.contains("timeline_cache_entries 3.0\n"));
+    }
+}
@@ -0,0 +1,183 @@
+package com.andreiruse.sampleWebTwitterImpl.persistence;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Follow;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournaledDataStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChangesAreRecoveredFromTheLog() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            populate(dataStore);
+        }
+
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            assertPopulated(dataStore);
+        }
+    }
+
+    @Test
+    public void testChangesAreRecoveredFromTheSnapshotAndTheLogTail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.INTERVAL)) {
+            populate(dataStore);
+            dataStore.snapshot();
+            User alice = dataStore.getUser("alice").get();
+            dataStore.addMessage(new Message(alice, "After the snapshot"));
+        }
+
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.INTERVAL)) {
+            assertPopulated(dataStore);
+            assertEquals(3, dataStore.getUser("alice").get().getWall().size());
+            assertEquals("After the snapshot", timelineContents(dataStore, "bob").get(0));
+        }
+        //The segments covered by the snapshot have been deleted
+        assertFalse(Files.exists(WriteAheadLog.segmentPath(directory, 1)));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            populate(dataStore);
+        }
+        byte[] tornRecord = JournalCodec.user("carol");
+        Files.write(WriteAheadLog.segmentPath(directory, 1), Arrays.copyOf(tornRecord, tornRecord.length - 3), StandardOpenOption.APPEND);
+
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            assertPopulated(dataStore);
+            assertFalse(dataStore.getUser("carol").isPresent());
+        }
+    }
+
+    @Test
+    public void testBulkFollowsRacingSingleFollowsAreRecovered() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        AtomicReference<DataStore> journaled = new AtomicReference<>();
+        AtomicReference<Thread> racer = new AtomicReference<>();
+        //Once the bulk follow is logged, and before it is applied, another thread follows and unfollows the same edge
+        DataStore racingDelegate = new InMemoryDataStore() {
+            @Override
+            public boolean[] followAll(List<Follow> follows) {
+                Follow raced = follows.get(0);
+                racer.set(new Thread(() -> {
+                    journaled.get().follow(raced.getFollower(), raced.getFollowed());
+                    journaled.get().unfollow(raced.getFollower(), raced.getFollowed());
+                }));
+                racer.get().start();
+                try {
+                    racer.get().join(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.followAll(follows);
+            }
+        };
+        List<String> following;
+        try (JournaledDataStore dataStore = new JournaledDataStore(racingDelegate, directory, FsyncPolicy.BATCH, 10, 0)) {
+            journaled.set(dataStore);
+            User follower = new User("follower");
+            User followed = new User("followed");
+            dataStore.storeUser(follower);
+            dataStore.storeUser(followed);
+            dataStore.followAll(Collections.singletonList(new Follow(follower, followed)));
+            racer.get().join();
+            following = usernames(follower.getFollowing());
+        }
+
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            assertEquals(following, usernames(dataStore.getUser("follower").get().getFollowing()));
+        }
+    }
+
+    @Test
+    public void testRacingCaseVariantsOfAUsernameAreRecoveredAsStored() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        AtomicReference<DataStore> journaled = new AtomicReference<>();
+        AtomicReference<Thread> racer = new AtomicReference<>();
+        //Once "Alice" is checked and logged, and before it is stored, another thread stores "alice"
+        DataStore racingDelegate = new InMemoryDataStore() {
+            @Override
+            public boolean storeUser(User user) {
+                if (racer.get() == null) {
+                    racer.set(new Thread(() -> journaled.get().storeUser(new User("alice"))));
+                    racer.get().start();
+                    try {
+                        racer.get().join(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.storeUser(user);
+            }
+        };
+        String stored;
+        try (JournaledDataStore dataStore = new JournaledDataStore(racingDelegate, directory, FsyncPolicy.BATCH, 10, 0)) {
+            journaled.set(dataStore);
+            dataStore.storeUser(new User("Alice"));
+            racer.get().join();
+            stored = dataStore.getUser("alice").get().getUsername();
+        }
+
+        try (JournaledDataStore dataStore = open(directory, FsyncPolicy.BATCH)) {
+            assertEquals(stored, dataStore.getUser("alice").get().getUsername());
+        }
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+
+    private static JournaledDataStore open(Path directory, FsyncPolicy fsyncPolicy) throws IOException {
+        return new JournaledDataStore(new InMemoryDataStore(), directory, fsyncPolicy, 10, 0);
+    }
+
+    private static void populate(DataStore dataStore) {
+        User alice = new User("alice");
+        User bob = new User("bob");
+        assertTrue(dataStore.storeUser(alice));
+        assertTrue(dataStore.storeUser(bob));
+        assertFalse(dataStore.storeUser(new User("Alice")));
+        dataStore.follow(bob, alice);
+        dataStore.addMessage(new Message(alice, "First message"));
+        dataStore.addMessage(new Message(alice, "Second message"));
+    }
+
+    private static void assertPopulated(DataStore dataStore) {
+        assertEquals(2, dataStore.getUsers().size());
+        User alice = dataStore.getUser("alice").get();
+        assertEquals("bob", dataStore.getFollowers(alice, null, 10).get(0).getUsername());
+        List<String> timeline = timelineContents(dataStore, "bob");
+        assertEquals("Second message", timeline.get(timeline.size() - 2));
+        assertEquals("First message", timeline.get(timeline.size() - 1));
+    }
+
+    private static List<String> timelineContents(DataStore dataStore, String username) {
+        return dataStore.getTimeline(dataStore.getUser(username).get(), Long.MAX_VALUE, 100).stream()
+                .map(Message::getContent)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,82 @@
+package com.andreiruse.sampleWebTwitterImpl.search;
+
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the index against a scan of every message, on random messages indexed out of order, and queries long enough
+ * that the posting lists are read in several chunks.
+ */
+public class MessageIndexTest {
+    private static final String[] WORDS = {"java", "#java", "tea", "coffee", "#coffee", "@alice", "bob", "rain", "sun", "code"};
+
+    @Test
+    public void testSearchMatchesScan() {
+        Random random = new Random(3);
+        List<User> authors = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            authors.add(new User("author-" + i));
+        }
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 20_000; id++) {
+            ids.add(id);
+        }
+        //Mostly in order, with some late arrivals
+        for (int i = 0; i < 2_000; i++) {
+            Collections.swap(ids, random.nextInt(ids.size()), random.nextInt(ids.size()));
+        }
+
+        MessageIndex index = new MessageIndex();
+        List<Message> messages = new ArrayList<>();
+        for (long id : ids) {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextBoolean() ? " " : ", ");
+            }
+            User author = authors.get(random.nextInt(authors.size()));
+            messages.add(new Message(id, author, content.toString()));
+        }
+        //The walls are in identifier order, whatever the order the index sees the messages in
+        messages.stream()
+                .sorted(Comparator.comparingLong(Message::getId))
+                .forEach(message -> message.getAuthor().addMessage(message));
+        messages.forEach(index::index);
+
+        for (String query : new String[]{"java", "#java", "Coffee code", "alice #coffee rain", "tea sun bob code", "missing"}) {
+            for (long before : new long[]{Long.MAX_VALUE, 15_000, 10}) {
+                assertEquals(query + " before " + before, scan(messages, query, before, 700),
+                        ids(index.search(query, before, 700)));
+            }
+        }
+    }
+
+    @Test
+    public void testHashtagsAndMentionsAreAlsoWords() {
+        assertEquals(Set.of("#java", "java", "and", "@bob", "bob", "c3po"), Tokenizer.terms("#Java, and @bob! C3PO #"));
+    }
+
+    private static List<Long> scan(List<Message> messages, String query, long before, int limit) {
+        Set<String> terms = Tokenizer.terms(query);
+        return messages.stream()
+                .filter(message -> message.getId() < before && Tokenizer.terms(message.getContent()).containsAll(terms))
+                .map(Message::getId)
+                .sorted(Collections.reverseOrder())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+}
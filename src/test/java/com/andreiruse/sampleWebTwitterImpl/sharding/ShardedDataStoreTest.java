@@ -0,0 +1,137 @@
+package com.andreiruse.sampleWebTwitterImpl.sharding;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.timeline.TimelineEngine;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link ShardedDataStore} answers like a single {@link InMemoryDataStore} holding the same data, and
+ * that the users are spread evenly, and stably, across the shards.
+ */
+public class ShardedDataStoreTest {
+    private static final int USERS = 60;
+
+    @Test
+    public void testShardedStoreMatchesSingleStore() throws IOException {
+        //A low fan-out threshold, so that some timelines are merged from the walls on read, in several shards
+        DataStore single = new InMemoryDataStore(new TimelineEngine(10_000, 5));
+        try (ShardedDataStore sharded = ShardedDataStore.inMemory(4, () -> new TimelineEngine(10_000, 5))) {
+            List<User> singleUsers = createUsers(single);
+            List<User> shardedUsers = createUsers(sharded);
+
+            Random random = new Random(7);
+            long id = 1;
+            for (int i = 0; i < 3_000; i++) {
+                int follower = random.nextInt(USERS);
+                int followed = random.nextInt(USERS);
+                switch (random.nextInt(6)) {
+                    case 0:
+                        assertEquals(single.unfollow(singleUsers.get(follower), singleUsers.get(followed)),
+                                sharded.unfollow(shardedUsers.get(follower), shardedUsers.get(followed)));
+                        break;
+                    case 1:
+                    case 2:
+                        if (follower != followed) {
+                            assertEquals(single.follow(singleUsers.get(follower), singleUsers.get(followed)),
+                                    sharded.follow(shardedUsers.get(follower), shardedUsers.get(followed)));
+                        }
+                        break;
+                    default:
+                        single.addMessage(new Message(id, singleUsers.get(followed), "Message " + id));
+                        sharded.addMessage(new Message(id, shardedUsers.get(followed), "Message " + id));
+                        id++;
+                }
+            }
+
+            for (int i = 0; i < USERS; i++) {
+                User singleUser = singleUsers.get(i);
+                User shardedUser = shardedUsers.get(i);
+                assertEquals(ids(single.getTimeline(singleUser, Long.MAX_VALUE, 20)),
+                        ids(sharded.getTimeline(shardedUser, Long.MAX_VALUE, 20)));
+                assertEquals(ids(single.getTimeline(singleUser, id / 2, 1_000)),
+                        ids(sharded.getTimeline(shardedUser, id / 2, 1_000)));
+                assertEquals(ids(take(single.iterateTimeline(singleUser, Long.MAX_VALUE, 50), 50)),
+                        ids(take(sharded.iterateTimeline(shardedUser, Long.MAX_VALUE, 50), 50)));
+                assertEquals(ids(single.getWall(singleUser, Long.MAX_VALUE, 100)),
+                        ids(sharded.getWall(shardedUser, Long.MAX_VALUE, 100)));
+                assertEquals(usernames(single.getFollowers(singleUser, null, 1_000)),
+                        usernames(sharded.getFollowers(shardedUser, null, 1_000)));
+                assertEquals(usernames(single.getFollowers(singleUser, "user-" + i / 2, 5)),
+                        usernames(sharded.getFollowers(shardedUser, "user-" + i / 2, 5)));
+            }
+            assertEquals(USERS, sharded.getUsers().size());
+            assertTrue(sharded.getUser("USER-7").isPresent());
+        }
+    }
+
+    @Test
+    public void testUsersAreSpreadEvenly() {
+        ConsistentHashRouter router = new ConsistentHashRouter(8);
+        int[] counts = new int[8];
+        for (int i = 0; i < 80_000; i++) {
+            counts[router.shardOf("user-" + i)]++;
+        }
+        for (int count : counts) {
+            //10 000 users per shard on average
+            assertTrue("Unbalanced shard, with " + count + " users", count > 7_000 && count < 13_000);
+        }
+    }
+
+    @Test
+    public void testAddingShardMovesFewUsers() {
+        ConsistentHashRouter before = new ConsistentHashRouter(8);
+        ConsistentHashRouter after = new ConsistentHashRouter(9);
+        int moved = 0;
+        for (int i = 0; i < 90_000; i++) {
+            String username = "user-" + i;
+            int shard = after.shardOf(username);
+            if (shard != before.shardOf(username)) {
+                //Only to the new shard
+                assertEquals(8, shard);
+                moved++;
+            }
+        }
+        //1/9 of the users on average
+        assertTrue("Moved " + moved + " users", moved > 5_000 && moved < 15_000);
+        assertEquals(before.shardOf("Someone"), before.shardOf("someone"));
+    }
+
+    private static List<User> createUsers(DataStore dataStore) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User("user-" + i);
+            dataStore.storeUser(user);
+            users.add(user);
+        }
+        return users;
+    }
+
+    private static List<Message> take(Iterator<Message> messages, int count) {
+        List<Message> page = new ArrayList<>();
+        while (page.size() < count && messages.hasNext()) {
+            page.add(messages.next());
+        }
+        return page;
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,128 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import com.andreiruse.sampleWebTwitterImpl.domain.UserRegistry;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TimelineCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void testPostsPatchCachedTimelines() {
+        TimelineCache cache = new TimelineCache(10, 1_000, 1_000, now::get);
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, Integer.MAX_VALUE, cache));
+        User reader = user(dataStore, "reader");
+        User author = user(dataStore, "author");
+        dataStore.follow(reader, author);
+        Message first = post(dataStore, author, "First");
+
+        assertEquals(Collections.singletonList(first), dataStore.getTimeline(reader, Long.MAX_VALUE, 10));
+        Message second = post(dataStore, author, "Second");
+
+        assertEquals(Arrays.asList(second, first), dataStore.getTimeline(reader, Long.MAX_VALUE, 10));
+        assertEquals(Collections.singletonList(first), dataStore.getTimeline(reader, second.getId(), 10));
+        assertEquals(1, cache.getStats().getMisses());
+        assertEquals(2, cache.getStats().getHits());
+    }
+
+    @Test
+    public void testFollowsInvalidateCachedTimelines() {
+        TimelineCache cache = new TimelineCache(10, 1_000, 1_000, now::get);
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, Integer.MAX_VALUE, cache));
+        User reader = user(dataStore, "reader");
+        User author = user(dataStore, "author");
+        Message message = post(dataStore, author, "Message");
+
+        assertEquals(Collections.emptyList(), dataStore.getTimeline(reader, Long.MAX_VALUE, 10));
+        dataStore.follow(reader, author);
+
+        assertEquals(Collections.singletonList(message), dataStore.getTimeline(reader, Long.MAX_VALUE, 10));
+        assertEquals(1, cache.getStats().getInvalidations());
+    }
+
+    @Test
+    public void testWholeTimelinesAreNotCached() {
+        TimelineCache cache = new TimelineCache(10, 1_000, 1_000, now::get);
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, Integer.MAX_VALUE, cache));
+        User reader = user(dataStore, "reader");
+        User author = user(dataStore, "author");
+        dataStore.follow(reader, author);
+        Message first = post(dataStore, author, "First");
+        Message second = post(dataStore, author, "Second");
+
+        assertEquals(Arrays.asList(second, first), dataStore.getTimeline(reader, Long.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, cache.size());
+
+        //A cached timeline which is complete still serves them
+        assertEquals(Arrays.asList(second, first), dataStore.getTimeline(reader, Long.MAX_VALUE, 10));
+        assertEquals(Arrays.asList(second, first), dataStore.getTimeline(reader, Long.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(Collections.singletonList(first), dataStore.getTimeline(reader, second.getId(), Integer.MAX_VALUE));
+        assertEquals(2, cache.getStats().getHits());
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        TimelineCache cache = new TimelineCache(10, 1_000, 1_000, now::get);
+        User reader = new User("reader");
+        cache.fill(cache.reserve(reader), Collections.emptyList(), 10);
+
+        now.set(1_000_000_000L);
+        assertEquals(Collections.emptyList(), cache.get(reader, Long.MAX_VALUE, 10));
+        now.set(1_000_000_001L);
+        assertNull(cache.get(reader, Long.MAX_VALUE, 10));
+        assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        TimelineCache cache = new TimelineCache(2, 1_000, 1_000, now::get);
+        User[] readers = {new User("reader0"), new User("reader1"), new User("reader2")};
+        cache.fill(cache.reserve(readers[0]), Collections.emptyList(), 10);
+        cache.fill(cache.reserve(readers[1]), Collections.emptyList(), 10);
+        cache.get(readers[0], Long.MAX_VALUE, 10);
+        cache.fill(cache.reserve(readers[2]), Collections.emptyList(), 10);
+
+        assertEquals(Collections.emptyList(), cache.get(readers[0], Long.MAX_VALUE, 10));
+        assertNull(cache.get(readers[1], Long.MAX_VALUE, 10));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+
+    @Test
+    public void testEntriesPatchedWhileLoadingAreNotCached() {
+        TimelineCache cache = new TimelineCache(10, 1_000, 1_000, now::get);
+        User reader = new User("reader");
+        User author = new User("author");
+        UserRegistry registry = new UserRegistry();
+        registry.register(reader);
+        registry.register(author);
+        reader.follow(author);
+
+        TimelineCache.Entry reservation = cache.reserve(reader);
+        cache.messagePosted(new Message(author, "Posted while loading"));
+        cache.fill(reservation, Collections.emptyList(), 10);
+
+        assertNull(cache.get(reader, Long.MAX_VALUE, 10));
+    }
+
+    private static User user(DataStore dataStore, String username) {
+        User user = new User(username);
+        dataStore.storeUser(user);
+        return user;
+    }
+
+    private static Message post(DataStore dataStore, User author, String content) {
+        Message message = new Message(author, content);
+        dataStore.addMessage(message);
+        return message;
+    }
+}
@@ -0,0 +1,273 @@
+package com.andreiruse.sampleWebTwitterImpl.timeline;
+
+import com.andreiruse.sampleWebTwitterImpl.DataStore;
+import com.andreiruse.sampleWebTwitterImpl.InMemoryDataStore;
+import com.andreiruse.sampleWebTwitterImpl.domain.Message;
+import com.andreiruse.sampleWebTwitterImpl.domain.User;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the timelines assembled by the {@link TimelineEngine} match the timelines built by pulling, merging and
+ * sorting the walls of every followed user, in every fan-out mode.
+ */
+public class TimelineEngineTest {
+    private static final Comparator<Message> NEWEST_FIRST = Comparator.comparingLong(Message::getId).reversed();
+    private static final int USERS = 30;
+
+    @Test
+    public void testFanOutOnWriteMatchesPullBasedTimeline() {
+        assertMatchesPullBasedTimeline(new TimelineEngine(10_000, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testHybridFanOutMatchesPullBasedTimeline() {
+        assertMatchesPullBasedTimeline(new TimelineEngine(10_000, 3));
+    }
+
+    @Test
+    public void testFanOutOnReadMatchesPullBasedTimeline() {
+        assertMatchesPullBasedTimeline(new TimelineEngine(10_000, -1));
+    }
+
+    @Test
+    public void testCachedTimelineMatchesPullBasedTimeline() {
+        assertMatchesPullBasedTimeline(new TimelineEngine(10_000, 3, new TimelineCache(10, 500, 60_000)), true);
+    }
+
+    @Test
+    public void testParallelMergeMatchesPullBasedTimeline() {
+        assertMatchesPullBasedTimeline(new TimelineEngine(10_000, 3, null, 0));
+    }
+
+    @Test
+    public void testParallelMergeOfManyWalls() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, -1, null, 0));
+        User reader = new User("reader");
+        dataStore.storeUser(reader);
+        Random random = new Random(5);
+        //Enough walls to be split across several fork-join tasks
+        for (int i = 0; i < 3 * WallMergeTask.LEAF_SIZE + 10; i++) {
+            User author = new User("author" + i);
+            dataStore.storeUser(author);
+            dataStore.follow(reader, author);
+            for (int j = random.nextInt(4); j > 0; j--) {
+                dataStore.addMessage(new Message(author, "Message " + j));
+            }
+        }
+
+        List<Message> expected = pullBasedTimeline(reader);
+        assertEquals(expected.subList(0, 50), dataStore.getTimeline(reader, Long.MAX_VALUE, 50));
+        long cursor = expected.get(99).getId();
+        assertEquals(expected.subList(100, 150), dataStore.getTimeline(reader, cursor, 50));
+        assertEquals(expected, dataStore.getTimeline(reader, Long.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testInboxKeepsNewestMessages() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(5, Integer.MAX_VALUE));
+        User reader = new User("reader");
+        User author = new User("author");
+        dataStore.storeUser(reader);
+        dataStore.storeUser(author);
+        dataStore.follow(reader, author);
+        for (int i = 0; i < 12; i++) {
+            dataStore.addMessage(new Message(author, "Message " + i));
+        }
+
+        List<Message> expected = author.getWall().stream()
+                .sorted(NEWEST_FIRST)
+                .limit(5)
+                .collect(Collectors.toList());
+        assertEquals(expected, dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+    }
+
+    @Test
+    public void testInboxGrowsUpToCapacity() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(20, Integer.MAX_VALUE));
+        User reader = new User("reader");
+        User[] authors = {new User("author0"), new User("author1")};
+        dataStore.storeUser(reader);
+        for (User author : authors) {
+            dataStore.storeUser(author);
+            dataStore.follow(reader, author);
+        }
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Message message = new Message(authors[i % 2], "Message " + i);
+            dataStore.addMessage(message);
+            posted.add(0, message);
+            //Through the growths of the ring, and then its evictions
+            assertEquals(posted.subList(0, Math.min(posted.size(), 20)), dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+        }
+
+        //The follow back-fills the inbox of a new follower with the newest messages, at once
+        User follower = new User("follower");
+        dataStore.storeUser(follower);
+        dataStore.follow(follower, authors[0]);
+        assertEquals(authors[0].getWall().stream().sorted(NEWEST_FIRST).limit(20).collect(Collectors.toList()),
+                dataStore.getTimeline(follower, Long.MAX_VALUE, 100));
+    }
+
+    @Test
+    public void testUnfollowRemovesMessagesFromTimeline() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 1));
+        User reader = new User("reader");
+        User author = new User("author");
+        User celebrity = new User("celebrity");
+        dataStore.storeUser(reader);
+        dataStore.storeUser(author);
+        dataStore.storeUser(celebrity);
+        dataStore.follow(reader, author);
+        dataStore.follow(reader, celebrity);
+        dataStore.follow(author, celebrity);
+        dataStore.addMessage(new Message(author, "Pushed"));
+        Message pulled = new Message(celebrity, "Pulled");
+        dataStore.addMessage(pulled);
+
+        dataStore.unfollow(reader, author);
+
+        assertEquals(Collections.singletonList(pulled), dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+        assertEquals(0, author.getFollowerCount());
+    }
+
+    @Test
+    public void testAuthorCrossingThresholdKeepsTimeline() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 2));
+        User reader = new User("reader");
+        User author = new User("author");
+        User[] fans = {new User("fan0"), new User("fan1"), new User("fan2")};
+        dataStore.storeUser(reader);
+        dataStore.storeUser(author);
+        for (User fan : fans) {
+            dataStore.storeUser(fan);
+        }
+        dataStore.follow(reader, author);
+        dataStore.follow(fans[0], author);
+        List<Message> expected = new ArrayList<>();
+
+        //Pushed, then pulled once the author has 3 followers
+        expected.add(0, addMessage(dataStore, author, "Pushed"));
+        dataStore.follow(fans[1], author);
+        expected.add(0, addMessage(dataStore, author, "Pulled"));
+        assertEquals(expected, dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+
+        //Back to 2 followers: pushed again, and the pulled message is still there
+        dataStore.unfollow(fans[1], author);
+        expected.add(0, addMessage(dataStore, author, "Pushed again"));
+        assertEquals(expected, dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+        assertEquals(expected.subList(1, 3), dataStore.getTimeline(reader, expected.get(0).getId(), 100));
+        assertEquals(expected, dataStore.getTimeline(fans[0], Long.MAX_VALUE, 100));
+
+        //Over the threshold again, with messages both pushed and on the wall
+        dataStore.follow(fans[2], author);
+        dataStore.follow(fans[1], author);
+        expected.add(0, addMessage(dataStore, author, "Pulled again"));
+        assertEquals(expected, dataStore.getTimeline(reader, Long.MAX_VALUE, 100));
+        assertEquals(expected.subList(0, 2), dataStore.getTimeline(reader, Long.MAX_VALUE, 2));
+    }
+
+    @Test
+    public void testTimelineIsLimited() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 0));
+        User reader = new User("reader");
+        User author = new User("author");
+        dataStore.storeUser(reader);
+        dataStore.storeUser(author);
+        dataStore.follow(reader, author);
+        for (int i = 0; i < 10; i++) {
+            dataStore.addMessage(new Message(author, "Message " + i));
+        }
+
+        assertEquals(3, dataStore.getTimeline(reader, Long.MAX_VALUE, 3).size());
+    }
+
+    @Test
+    public void testTimelinePagesFollowEachOther() {
+        DataStore dataStore = new InMemoryDataStore(new TimelineEngine(100, 1));
+        User reader = new User("reader");
+        User author = new User("author");
+        User celebrity = new User("celebrity");
+        dataStore.storeUser(reader);
+        dataStore.storeUser(author);
+        dataStore.storeUser(celebrity);
+        dataStore.follow(reader, author);
+        dataStore.follow(reader, celebrity);
+        dataStore.follow(author, celebrity);
+        for (int i = 0; i < 20; i++) {
+            dataStore.addMessage(new Message(i % 3 == 0 ? celebrity : author, "Message " + i));
+        }
+
+        List<Message> fullTimeline = dataStore.getTimeline(reader, Long.MAX_VALUE, Integer.MAX_VALUE);
+        List<Message> pagedTimeline = new ArrayList<>();
+        List<Message> page = dataStore.getTimeline(reader, Long.MAX_VALUE, 6);
+        while (!page.isEmpty()) {
+            pagedTimeline.addAll(page);
+            page = dataStore.getTimeline(reader, page.get(page.size() - 1).getId(), 6);
+        }
+
+        assertEquals(20, fullTimeline.size());
+        assertEquals(fullTimeline, pagedTimeline);
+    }
+
+    private static void assertMatchesPullBasedTimeline(TimelineEngine timelineEngine) {
+        assertMatchesPullBasedTimeline(timelineEngine, false);
+    }
+
+    /**
+     * Builds a random social graph, interleaving follows and posts, then compares every user's timeline with the pull-based one.
+     *
+     * @param readWhileWriting true to also read, and compare, the heads of the timelines while the graph is being built
+     */
+    private static void assertMatchesPullBasedTimeline(TimelineEngine timelineEngine, boolean readWhileWriting) {
+        DataStore dataStore = new InMemoryDataStore(timelineEngine);
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User("user" + i);
+            dataStore.storeUser(user);
+            users.add(user);
+        }
+
+        for (int step = 0; step < 2_000; step++) {
+            User user = users.get(random.nextInt(USERS));
+            if (random.nextInt(4) == 0) {
+                //Skew the follows towards the first users, so that some of them cross the fan-out threshold
+                User followed = users.get(random.nextInt(1 + random.nextInt(USERS)));
+                if (followed != user && !user.isFollowing(followed)) {
+                    dataStore.follow(user, followed);
+                }
+            } else if (readWhileWriting && random.nextInt(3) == 0) {
+                List<Message> expected = pullBasedTimeline(user).stream().limit(20).collect(Collectors.toList());
+                assertEquals(expected, dataStore.getTimeline(user, Long.MAX_VALUE, 20));
+            } else {
+                dataStore.addMessage(new Message(user, "Message " + step));
+            }
+        }
+
+        for (User user : users) {
+            assertEquals(pullBasedTimeline(user), dataStore.getTimeline(user, Long.MAX_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    private static Message addMessage(DataStore dataStore, User author, String content) {
+        Message message = new Message(author, content);
+        dataStore.addMessage(message);
+        return message;
+    }
+
+    private static List<Message> pullBasedTimeline(User user) {
+        return user.getFollowing().stream()
+                .flatMap(followed -> followed.getWall().stream())
+                .sorted(NEWEST_FIRST)
+                .collect(Collectors.toList());
+    }
+}
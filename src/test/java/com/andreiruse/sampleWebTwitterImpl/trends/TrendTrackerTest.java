@@ -0,0 +1,127 @@
+package com.andreiruse.sampleWebTwitterImpl.trends;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the trends against exact counts, on a long-tailed stream of hashtags, and that the counts leave the window
+ * bucket by bucket.
+ */
+public class TrendTrackerTest {
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void testTopHashtagsMatchExactCounts() {
+        MutableClock clock = new MutableClock(100 * MINUTE);
+        TrendTracker tracker = new TrendTracker(10, MINUTE, clock);
+        Map<String, Long> exact = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            //A few heavy hashtags, and a long tail of rare ones
+            String hashtag = random.nextInt(4) == 0 ? "#tail" + random.nextInt(50_000) : "#tag" + (int) Math.sqrt(random.nextInt(100));
+            tracker.record(hashtag, clock.millis());
+            exact.merge(hashtag, 1L, Long::sum);
+            if (i % 40_000 == 0) {
+                clock.advance(MINUTE / 2);
+            }
+        }
+
+        List<Trend> trends = tracker.top(10 * MINUTE, 5);
+        List<String> expected = exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(5)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        assertEquals(expected, trends.stream().map(Trend::getHashtag).collect(Collectors.toList()));
+        for (Trend trend : trends) {
+            long count = exact.get(trend.getHashtag());
+            //Never under, and slightly over at most
+            assertTrue(trend + " for " + count, trend.getCount() >= count && trend.getCount() <= count + count / 50);
+        }
+    }
+
+    @Test
+    public void testEvenlyUsedHashtagsAreListed() {
+        MutableClock clock = new MutableClock(100 * MINUTE);
+        TrendTracker tracker = new TrendTracker(10, MINUTE, clock);
+        //As many hashtags as a summary monitors, all used as often, so that they are all tied at the lowest count
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < TrendTracker.CANDIDATES_PER_STRIPE; i++) {
+                tracker.record("#even" + i, clock.millis());
+            }
+        }
+
+        List<Trend> trends = tracker.top(10 * MINUTE, 10);
+        assertEquals(10, trends.size());
+        for (Trend trend : trends) {
+            assertTrue(trend.toString(), trend.getCount() >= 5);
+        }
+    }
+
+    @Test
+    public void testCountsLeaveTheWindow() {
+        MutableClock clock = new MutableClock(100 * MINUTE);
+        TrendTracker tracker = new TrendTracker(5, MINUTE, clock);
+        for (int i = 0; i < 30; i++) {
+            tracker.record("#old", clock.millis());
+        }
+        clock.advance(2 * MINUTE);
+        for (int i = 0; i < 20; i++) {
+            tracker.record("#new", clock.millis());
+        }
+        //Late and early arrivals
+        tracker.record("#new", clock.millis() - 60 * MINUTE);
+        tracker.record("#new", clock.millis() + 60 * MINUTE);
+
+        assertEquals("[#new=21]", tracker.top(MINUTE, 10).toString());
+        assertEquals("[#old=30, #new=21]", tracker.top(5 * MINUTE, 10).toString());
+        clock.advance(3 * MINUTE);
+        assertEquals("[#new=21]", tracker.top(60 * MINUTE, 10).toString());
+        clock.advance(2 * MINUTE);
+        assertEquals("[]", tracker.top(60 * MINUTE, 10).toString());
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis;
+
+        MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(long duration) {
+            millis += duration;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}